@@ -0,0 +1,48 @@
+package com.opentok.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.opentok.util.Base64;
+
+/**
+ * Base64.encode at token-sized and larger inputs, returning a String and writing into a caller buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Base64Benchmark {
+
+	@Param({ "16", "200", "1200", "4096" })
+	public int size;
+
+	private String input;
+	private byte[] bytes;
+	private char[] buffer;
+
+	@Setup
+	public void setup() throws Exception {
+		input = Fixtures.repeat('a', size);
+		bytes = input.getBytes("UTF-8");
+		buffer = new char[Base64.encodedLength(bytes.length)];
+	}
+
+	@Benchmark
+	public String encode() {
+		return Base64.encode(input);
+	}
+
+	@Benchmark
+	public char[] encodeIntoBuffer() {
+		Base64.encode(bytes, 0, bytes.length, buffer, 0);
+		return buffer;
+	}
+}
@@ -0,0 +1,43 @@
+package com.opentok.bench;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Shared inputs for the benchmarks. Nothing here talks to the network.
+ */
+class Fixtures {
+
+	static final int API_KEY = 12345;
+	static final String API_SECRET = "1234567890abcdef1234567890abcdef12345678";
+
+	static final String SESSION_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<sessions><Session><session_id>1_MX4xMjM0NX4xMjcuMC4wLjF-fjAuMTIzfg</session_id>"
+			+ "<partner_id>12345</partner_id><create_dt>Sat Oct 18 12:00:00 PDT 2026</create_dt></Session></sessions>\n";
+
+	static final String TOKEN_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<Tokens><token><role>publisher</role><expire_time>1792432078</expire_time>"
+			+ "<connection_data>test string</connection_data>"
+			+ "<permissions><subscribe/><publish/><signal/></permissions></token></Tokens>\n";
+
+	static final String ERROR_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<Errors><error code=\"403\"><authenticationError message=\"Invalid partner credentials\"/></error></Errors>\n";
+
+	/** A session id in the current format that belongs to API_KEY. */
+	static String sessionId() {
+		try {
+			String raw = "1~" + API_KEY + "~127.0.0.1~Sat Oct 18 12:00:00 PDT 2026~0.123456~";
+			String encoded = java.util.Base64.getEncoder().withoutPadding().encodeToString(raw.getBytes("ISO8859_1"));
+			return "1_" + encoded.replace('+', '-').replace('/', '_');
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String repeat(char c, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,74 @@
+package com.opentok.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.TokBoxResponseReader;
+import com.opentok.util.TokBoxXML;
+
+/**
+ * Parsing representative API responses with the DOM-based TokBoxXML and the streaming TokBoxResponseReader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseParseBenchmark {
+
+	@Benchmark
+	public String sessionResponse_dom() throws OpenTokException {
+		TokBoxXML xml = new TokBoxXML(Fixtures.SESSION_RESPONSE);
+		xml.hasElement("error", "Errors");
+		return xml.getElementValue("session_id", "Session");
+	}
+
+	@Benchmark
+	public String sessionResponse_stream() throws OpenTokException {
+		return TokBoxResponseReader.read(Fixtures.SESSION_RESPONSE, "Session/session_id")[0];
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String sessionResponse_stream_4threads() throws OpenTokException {
+		return TokBoxResponseReader.read(Fixtures.SESSION_RESPONSE, "Session/session_id")[0];
+	}
+
+	@Benchmark
+	public boolean tokenResponse_dom() throws OpenTokException {
+		TokBoxXML xml = new TokBoxXML(Fixtures.TOKEN_RESPONSE);
+		return xml.getElementValue("role", "token") != null && xml.hasElement("publish", "permissions");
+	}
+
+	@Benchmark
+	public boolean tokenResponse_stream() throws OpenTokException {
+		String[] values = TokBoxResponseReader.read(Fixtures.TOKEN_RESPONSE, "token/role", "permissions/publish");
+		return values[0] != null && values[1] != null;
+	}
+
+	@Benchmark
+	public OpenTokException errorResponse_dom() {
+		try {
+			new TokBoxXML(Fixtures.ERROR_RESPONSE);
+			return null;
+		} catch (OpenTokException e) {
+			return e;
+		}
+	}
+
+	@Benchmark
+	public OpenTokException errorResponse_stream() {
+		try {
+			TokBoxResponseReader.read(Fixtures.ERROR_RESPONSE, "Session/session_id");
+			return null;
+		} catch (OpenTokException e) {
+			return e;
+		}
+	}
+}
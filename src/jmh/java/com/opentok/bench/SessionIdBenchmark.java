@@ -0,0 +1,49 @@
+package com.opentok.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Decoding a session id and checking that it belongs to the SDK's partner id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SessionIdBenchmark {
+
+	/** Exposes the protected validation step. */
+	static class Validator extends OpenTokSDK {
+		Validator() {
+			super(Fixtures.API_KEY, Fixtures.API_SECRET);
+		}
+
+		void validate(String session_id) throws OpenTokException {
+			validate_session_id(session_id);
+		}
+	}
+
+	private Validator validator;
+	private String sessionId;
+
+	@Setup
+	public void setup() {
+		validator = new Validator();
+		sessionId = Fixtures.sessionId();
+	}
+
+	@Benchmark
+	public String validate_session_id() throws OpenTokException {
+		validator.validate(sessionId);
+		return sessionId;
+	}
+}
@@ -0,0 +1,56 @@
+package com.opentok.bench;
+
+import java.security.SignatureException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.opentok.util.GenerateMac;
+import com.opentok.util.HmacSigner;
+
+/**
+ * HMAC-SHA1 signing of a typical token payload, per call (GenerateMac) and with a reusable HmacSigner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SignBenchmark {
+
+	private String data;
+	private HmacSigner signer;
+
+	@Setup
+	public void setup() throws SignatureException {
+		data = "session_id=" + Fixtures.sessionId() + "&create_time=1792345678&nonce=1234567890&role=publisher";
+		signer = new HmacSigner(Fixtures.API_SECRET);
+	}
+
+	@Benchmark
+	public String calculateRFC2104HMAC() throws SignatureException {
+		return GenerateMac.calculateRFC2104HMAC(data, Fixtures.API_SECRET);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String calculateRFC2104HMAC_4threads() throws SignatureException {
+		return GenerateMac.calculateRFC2104HMAC(data, Fixtures.API_SECRET);
+	}
+
+	@Benchmark
+	public String hmacSigner() throws SignatureException {
+		return signer.sign(data);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String hmacSigner_4threads() throws SignatureException {
+		return signer.sign(data);
+	}
+}
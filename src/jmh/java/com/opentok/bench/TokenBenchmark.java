@@ -0,0 +1,113 @@
+package com.opentok.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenCache;
+import com.opentok.api.TokenExporter;
+import com.opentok.api.TokenSpec;
+import com.opentok.api.TokenTemplate;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * OpenTokSDK.generate_token, TokenTemplate.generate_token (as a String and into a direct ByteBuffer), TokenCache hits and TokenExporter, across every role, expire_time and connection_data combination.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenBenchmark {
+
+	private static final int EXPORT_TOKENS = 10000;
+
+	@Param({ "publisher", "subscriber", "moderator" })
+	public String role;
+
+	/** "none" for the default expiry, otherwise seconds from now. */
+	@Param({ "none", "3600" })
+	public String expire;
+
+	/** Length of the connection_data, -1 for none. */
+	@Param({ "-1", "32", "1000" })
+	public int connectionData;
+
+	private OpenTokSDK sdk;
+	private String sessionId;
+	private Long expireTime;
+	private String data;
+	private TokenTemplate template;
+	private TokenCache cache;
+	private ByteBuffer buffer;
+	private TokenExporter exporter;
+	private List<TokenSpec> specs;
+	private OutputStream sink;
+
+	@Setup
+	public void setup() throws OpenTokException {
+		sdk = new OpenTokSDK(Fixtures.API_KEY, Fixtures.API_SECRET);
+		sessionId = Fixtures.sessionId();
+		// Far enough ahead to stay valid for the whole run
+		expireTime = "none".equals(expire) ? null : Long.valueOf(System.currentTimeMillis() / 1000 + Long.parseLong(expire));
+		data = connectionData < 0 ? null : Fixtures.repeat('x', connectionData);
+		template = sdk.token_template(sessionId, role, data);
+		cache = new TokenCache(sdk, 1000, 1 << 20);
+		buffer = ByteBuffer.allocateDirect(template.token_length(expireTime));
+		exporter = new TokenExporter(sdk);
+		specs = Collections.nCopies(EXPORT_TOKENS, new TokenSpec(role, expireTime, data));
+		sink = new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+	}
+
+	@Benchmark
+	public String generate_token() throws OpenTokException {
+		return sdk.generate_token(sessionId, role, expireTime, data);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String generate_token_4threads() throws OpenTokException {
+		return sdk.generate_token(sessionId, role, expireTime, data);
+	}
+
+	@Benchmark
+	public String template_generate_token() throws OpenTokException {
+		return template.generate_token(expireTime);
+	}
+
+	@Benchmark
+	public int template_generate_token_buffer() throws OpenTokException {
+		buffer.clear();
+		return template.generate_token(expireTime, buffer);
+	}
+
+	@Benchmark
+	public String cache_generate_token() throws OpenTokException {
+		return cache.generate_token(sessionId, role, expireTime, data);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(EXPORT_TOKENS)
+	public TokenExporter.Result export() throws OpenTokException, IOException {
+		return exporter.export(sessionId, specs.iterator(), sink);
+	}
+}
@@ -0,0 +1,58 @@
+package com.opentok.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenVerifier;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * TokenVerifier on tokens from generate_token, with and without reading a claim.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VerifyBenchmark {
+
+	/** Length of the connection_data, -1 for none. */
+	@Param({ "-1", "1000" })
+	public int connectionData;
+
+	private TokenVerifier verifier;
+	private String token;
+
+	@Setup
+	public void setup() throws OpenTokException {
+		OpenTokSDK sdk = new OpenTokSDK(Fixtures.API_KEY, Fixtures.API_SECRET);
+		String data = connectionData < 0 ? null : Fixtures.repeat('x', connectionData);
+		token = sdk.generate_token(Fixtures.sessionId(), RoleConstants.PUBLISHER, null, data);
+		verifier = sdk.token_verifier();
+	}
+
+	@Benchmark
+	public boolean is_valid() {
+		return verifier.is_valid(token);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean is_valid_4threads() {
+		return verifier.is_valid(token);
+	}
+
+	@Benchmark
+	public String verify_role() throws OpenTokException {
+		return verifier.verify(token).getRole();
+	}
+}
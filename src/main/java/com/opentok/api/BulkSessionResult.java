@@ -0,0 +1,86 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Outcome of OpenTokSDK.create_sessions: one session or failure per spec, in spec order.
+ */
+public class BulkSessionResult {
+
+	private final OpenTokSession[] sessions;
+	private final OpenTokException[] failures;
+	private final long elapsedNanos;
+
+	BulkSessionResult(OpenTokSession[] sessions, OpenTokException[] failures, long elapsedNanos) {
+		this.sessions = sessions;
+		this.failures = failures;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/** The created sessions in spec order, with null for each spec that failed. */
+	public List<OpenTokSession> getSessions() {
+		return Collections.unmodifiableList(Arrays.asList(sessions));
+	}
+
+	/** The session for spec index, or null if it failed. */
+	public OpenTokSession getSession(int index) {
+		return sessions[index];
+	}
+
+	/** The exception for each failed spec, keyed by spec index. */
+	public SortedMap<Integer, OpenTokException> getFailures() {
+		SortedMap<Integer, OpenTokException> m = new TreeMap<Integer, OpenTokException>();
+		for (int i = 0; i < failures.length; i++) {
+			if (failures[i] != null) {
+				m.put(i, failures[i]);
+			}
+		}
+		return m;
+	}
+
+	public int getSucceeded() {
+		return sessions.length - getFailed();
+	}
+
+	public int getFailed() {
+		int failed = 0;
+		for (OpenTokException e : failures) {
+			if (e != null) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	public boolean isComplete() {
+		return getFailed() == 0;
+	}
+
+	/** Wall-clock time of the whole batch. */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/** Sessions created per second over the whole batch. */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : getSucceeded() * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d sessions, %d failed, %.1f sessions/s", getSucceeded(), getFailed(), getThroughput());
+	}
+}
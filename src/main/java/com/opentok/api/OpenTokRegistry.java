@@ -0,0 +1,152 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.SignatureException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokValidationException;
+import com.opentok.util.AsyncExecutors;
+import com.opentok.util.HmacSigner;
+
+/**
+ * Registry of OpenTokSDK tenants for processes that serve many partner api_keys.
+ *
+ * register() prepares a tenant's HMAC signer and auth headers once, eagerly, so an unusable
+ * secret is reported at registration. The tenant keeps the secret only where requests need it:
+ * inside the signer and in the X-TB-PARTNER-AUTH header, which carries api_key:api_secret.
+ *
+ * All tenants share the registry's transport and async executor. Tenants are looked up by
+ * api_key in a ConcurrentHashMap, so resolving one on the token path takes no lock. Registering
+ * an api_key again replaces its tenant, e.g. to rotate the secret.
+ *
+ *     OpenTokRegistry registry = new OpenTokRegistry();
+ *     registry.register(api_key, api_secret);
+ *     String token = registry.tenant(api_key).generate_token(session_id);
+ */
+public class OpenTokRegistry implements Closeable {
+
+	private final String api_url;
+	private final TokBoxTransport transport;
+	private final Executor executor;
+	/** Whether transport was created by the registry, to be closed by close() if it is Closeable. */
+	private final boolean owns_transport;
+	private final ConcurrentHashMap<Integer, OpenTokSDK> tenants = new ConcurrentHashMap<Integer, OpenTokSDK>();
+
+	/**
+	 * Tenants talk to the production API through a TokBoxNetConnection, like a standalone OpenTokSDK.
+	 */
+	public OpenTokRegistry() {
+		this(API_Config.API_URL);
+	}
+
+	public OpenTokRegistry(String api_url) {
+		this(api_url, new TokBoxNetConnection(), AsyncExecutors.defaultExecutor(), true);
+	}
+
+	/**
+	 * Tenants share the given transport and executor. They are not closed by close().
+	 */
+	public OpenTokRegistry(String api_url, TokBoxTransport transport, Executor executor) {
+		this(api_url, transport, executor, false);
+	}
+
+	private OpenTokRegistry(String api_url, TokBoxTransport transport, Executor executor, boolean owns_transport) {
+		if (api_url == null || transport == null || executor == null) {
+			throw new NullPointerException();
+		}
+		this.api_url = api_url;
+		this.transport = transport;
+		this.executor = executor;
+		this.owns_transport = owns_transport;
+	}
+
+	/**
+	 * Adds the tenant for api_key, or replaces it, and returns it.
+	 */
+	public OpenTokSDK register(int api_key, String api_secret) throws OpenTokException {
+		if (api_secret == null) {
+			throw new OpenTokValidationException("api_secret must not be null");
+		}
+		String secret = api_secret.trim();
+		HmacSigner signer;
+		try {
+			signer = new HmacSigner(secret);
+		} catch (SignatureException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("X-TB-PARTNER-AUTH", api_key + ":" + secret);
+
+		OpenTokSDK sdk = new OpenTokSDK(api_key, signer, Collections.unmodifiableMap(headers), api_url);
+		sdk.setTransport(transport);
+		sdk.setAsyncExecutor(executor);
+		tenants.put(api_key, sdk);
+		return sdk;
+	}
+
+	/**
+	 * Returns the tenant for api_key.
+	 * @throws OpenTokException if api_key is not registered
+	 */
+	public OpenTokSDK tenant(int api_key) throws OpenTokException {
+		OpenTokSDK sdk = tenants.get(api_key);
+		if (sdk == null) {
+			throw new OpenTokException("No tenant registered for api_key " + api_key);
+		}
+		return sdk;
+	}
+
+	/**
+	 * Returns the tenant for api_key, or null if it is not registered.
+	 */
+	public OpenTokSDK get(int api_key) {
+		return tenants.get(api_key);
+	}
+
+	/**
+	 * Removes the tenant for api_key and returns whether it was registered.
+	 */
+	public boolean unregister(int api_key) {
+		return tenants.remove(api_key) != null;
+	}
+
+	public Set<Integer> api_keys() {
+		return Collections.unmodifiableSet(tenants.keySet());
+	}
+
+	public int size() {
+		return tenants.size();
+	}
+
+	public TokBoxTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Closes the transport if the registry created it.
+	 */
+	public void close() {
+		if (owns_transport && transport instanceof Closeable) {
+			try {
+				((Closeable) transport).close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+		}
+	}
+}
@@ -10,31 +10,128 @@
 
 package com.opentok.api;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.security.SignatureException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.opentok.api.constants.RoleConstants;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.RequestEventListener;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.api.constants.SessionProfile;
 import com.opentok.api.constants.SessionProperties;
 import com.opentok.exception.OpenTokException;
-import com.opentok.util.Base64;
-import com.opentok.util.GenerateMac;
+import com.opentok.exception.OpenTokValidationException;
+import com.opentok.metrics.Operation;
+import com.opentok.metrics.Outcome;
+import com.opentok.metrics.SdkMetrics;
+import com.opentok.util.AsyncExecutors;
+import com.opentok.util.FormEncoder;
+import com.opentok.util.HmacSigner;
+import com.opentok.util.TokBoxResponseReader;
 import com.opentok.util.TokBoxXML;
 
 public class OpenTokSDK {
 
 	protected int api_key;
 	protected String api_secret;
+	protected String api_url;
+
+	// Smallest number of specs handed to one batch task
+	private static final int BATCH_MIN_CHUNK = 64;
+
+	public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+	/** Stands for the SDK's timeout in the create_session helpers, as opposed to one given per call. */
+	private static final long SDK_TIMEOUT = -1;
+
+	private static final byte[] LOCATION = { 'l', 'o', 'c', 'a', 't', 'i', 'o', 'n', '=' };
+
+	// Matches the pooled transport's default connections per route
+	private static final int DEFAULT_BULK_CONCURRENCY = PooledTokBoxTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+	private volatile HmacSigner signer;
+
+	private volatile TokenVerifier verifier;
+
+	private volatile Executor async_executor;
+
+	private volatile TokBoxTransport transport;
+
+	private volatile RequestEventListener event_listener;
+
+	// The request just sent on this thread, handed to the listener's parse phases
+	private final ThreadLocal<TokBoxRequest> sent_request = new ThreadLocal<TokBoxRequest>();
+
+	private volatile long timeout_millis = DEFAULT_TIMEOUT_MILLIS;
+
+	private static volatile TokBoxTransport default_transport;
+
+	private final Map<String, String> auth_headers;
+
+	protected final SdkMetrics metrics = new SdkMetrics();
 
 	public OpenTokSDK(int api_key, String api_secret) {
+		this(api_key, api_secret, API_Config.API_URL);
+	}
+
+	/**
+	 * @api_url: Base url of the OpenTok API, e.g. to point the SDK at a proxy or a local stand-in.
+	 */
+	public OpenTokSDK(int api_key, String api_secret, String api_url) {
 		this.api_key = api_key;
 		this.api_secret = api_secret.trim();
+		this.api_url = api_url;
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("X-TB-PARTNER-AUTH", this.api_key + ":" + this.api_secret);
+		this.auth_headers = Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Tenant of an OpenTokRegistry: the signer and auth headers are prepared by the registry, so
+	 * the api_secret field stays null. The secret is still held in the X-TB-PARTNER-AUTH header,
+	 * which the API requires as api_key:api_secret.
+	 */
+	OpenTokSDK(int api_key, HmacSigner signer, Map<String, String> auth_headers, String api_url) {
+		this.api_key = api_key;
+		this.api_url = api_url;
+		this.signer = signer;
+		this.auth_headers = auth_headers;
+	}
+
+	/**
+	 * Returns the signer bound to api_secret, creating it on first use. Creation is deferred so
+	 * that an unusable secret is reported by generate_token rather than by the constructor.
+	 */
+	protected HmacSigner signer() throws OpenTokException {
+		HmacSigner s = signer;
+		if (s == null) {
+			try {
+				s = new HmacSigner(this.api_secret);
+			} catch (SignatureException e) {
+				throw new OpenTokException(e.getMessage());
+			}
+			signer = s;
+		}
+		return s;
 	}
 
 	/**
@@ -46,93 +143,214 @@ public class OpenTokSDK {
      * @expire_time: Integer timestamp. You can override the default token expire time of 24h by choosing an explicit expire time. Can be up to 7d after create_time.
 	 */
     public String generate_token(String session_id, String role, Long expire_time, String connection_data) throws OpenTokException {
-	
+        long start = System.nanoTime();
+        try {
+            validate_session_id(session_id);
+            String token = new TokenTemplate(this, session_id, role, connection_data).sign(expire_time);
+            metrics.record(Operation.GENERATE_TOKEN, Outcome.SUCCESS, System.nanoTime() - start);
+            return token;
+        } catch (OpenTokException e) {
+            metrics.record(Operation.GENERATE_TOKEN, Outcome.of(e), System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+	/**
+	 * Generates one token per spec for a single session.
+	 * The session_id is validated once and the specs are signed in parallel on the common fork-join pool,
+	 * with the calling thread signing its share instead of waiting. Tokens are returned in the same order as specs.
+	 */
+    public List<String> generate_tokens(String session_id, List<TokenSpec> specs) throws OpenTokException {
+        return generate_tokens(session_id, specs, ForkJoinPool.commonPool());
+    }
+
+	/**
+	 * Same as generate_tokens(session_id, specs), with signing fanned out on the given executor.
+	 * A ForkJoinPool runs the batch as fork-join tasks; the caller joins in when the pool is the
+	 * common pool or its own. If any spec is rejected, the exception for the first rejected spec
+	 * (in input order) is thrown.
+	 */
+    public List<String> generate_tokens(final String session_id, final List<TokenSpec> specs, Executor executor) throws OpenTokException {
+        validate_session_id(session_id);
+        final String[] tokens = new String[specs.size()];
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(BATCH_MIN_CHUNK, (tokens.length + parallelism * 4 - 1) / (parallelism * 4));
+        if (tokens.length <= chunk) {
+            sign_tokens(session_id, specs, tokens, 0, tokens.length);
+            return Arrays.asList(tokens);
+        }
+
+        if (executor instanceof ForkJoinPool) {
+            OpenTokException[] failures = new OpenTokException[(tokens.length + chunk - 1) / chunk];
+            SignTask task = new SignTask(session_id, specs, tokens, failures, chunk, 0, tokens.length);
+            ForkJoinPool current = ForkJoinTask.getPool();
+            if (current == executor || (current == null && executor == ForkJoinPool.commonPool())) {
+                // Runs the first half here and helps with the rest while joining
+                task.invoke();
+            } else {
+                ((ForkJoinPool) executor).invoke(task);
+            }
+            for (OpenTokException failure : failures) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            return Arrays.asList(tokens);
+        }
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+        for (int start = 0; start < tokens.length; start += chunk) {
+            final int from = start;
+            final int to = Math.min(tokens.length, start + chunk);
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                public Void call() throws OpenTokException {
+                    sign_tokens(session_id, specs, tokens, from, to);
+                    return null;
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new OpenTokException("Interrupted while generating tokens");
+        } catch (ExecutionException e) {
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(true);
+            }
+            if (e.getCause() instanceof OpenTokException) {
+                throw (OpenTokException) e.getCause();
+            }
+            throw new OpenTokException("Unable to generate tokens: " + e.getCause());
+        }
+        return Arrays.asList(tokens);
+    }
+
+    /**
+     * Signs specs [from, to) into tokens, split in halves down to chunk specs. Leaves start at
+     * multiples of chunk, and each records its rejection in failures[from / chunk].
+     */
+    private final class SignTask extends RecursiveAction {
+        private static final long serialVersionUID = 5381467201944270839L;
+
+        private final String session_id;
+        private final List<TokenSpec> specs;
+        private final String[] tokens;
+        private final OpenTokException[] failures;
+        private final int chunk;
+        private final int from;
+        private final int to;
+
+        SignTask(String session_id, List<TokenSpec> specs, String[] tokens, OpenTokException[] failures, int chunk, int from, int to) {
+            this.session_id = session_id;
+            this.specs = specs;
+            this.tokens = tokens;
+            this.failures = failures;
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                try {
+                    sign_tokens(session_id, specs, tokens, from, to);
+                } catch (OpenTokException e) {
+                    failures[from / chunk] = e;
+                }
+                return;
+            }
+            int mid = from + Math.max(1, (to - from) / chunk / 2) * chunk;
+            invokeAll(new SignTask(session_id, specs, tokens, failures, chunk, from, mid),
+                    new SignTask(session_id, specs, tokens, failures, chunk, mid, to));
+        }
+    }
+
+    private void sign_tokens(String session_id, List<TokenSpec> specs, String[] tokens, int from, int to) throws OpenTokException {
+        TokenTemplate template = null;
+        for (int i = from; i < to; i++) {
+            TokenSpec spec = specs.get(i);
+            long start = System.nanoTime();
+            try {
+                // Consecutive specs usually share role and connection_data
+                if (template == null || !template.matches(spec.role, spec.connection_data)) {
+                    template = new TokenTemplate(this, session_id, spec.role, spec.connection_data);
+                }
+                tokens[i] = template.sign(spec.expire_time);
+                metrics.record(Operation.GENERATE_TOKEN, Outcome.SUCCESS, System.nanoTime() - start);
+            } catch (OpenTokException e) {
+                metrics.record(Operation.GENERATE_TOKEN, Outcome.of(e), System.nanoTime() - start);
+                throw e;
+            }
+        }
+    }
+
+    protected void validate_session_id(String session_id) throws OpenTokException {
         if(session_id == null || session_id == "") {
-            throw new OpenTokException("SessionId cannot be null or empty.");   
+            throw new OpenTokValidationException("SessionId cannot be null or empty.");   
         }
         String decodedSessionId = "";
         try { 
             String subSessionId = session_id.substring(2);
             for (int i = 0; i<3; i++){
                 String newSessionId = subSessionId.concat(repeatString("=",i));
-                decodedSessionId = new String(DatatypeConverter.parseBase64Binary(
+                decodedSessionId = new String(java.util.Base64.getMimeDecoder().decode(
                             newSessionId.replace('-', '+').replace('_', '/')), "ISO8859_1");
                 if (decodedSessionId.contains("~")){ 
                     break;
                 }
             }
             if(!decodedSessionId.split("~")[1].equals(String.valueOf(api_key))) {
-                throw new OpenTokException("SessionId does not belong to the same partnerId");
+                throw new OpenTokValidationException("SessionId does not belong to the same partnerId");
             }
         } catch (Exception e) {
-            throw new OpenTokException("SessionId cannot be invalid.");
+            throw new OpenTokValidationException("SessionId cannot be invalid.");
         }
-        
-        
-        Long create_time = new Long(System.currentTimeMillis() / 1000).longValue();
-		StringBuilder data_string_builder = new StringBuilder();
-		//Build the string
-		Random random = new Random();
-		int nonce = random.nextInt();
-		data_string_builder.append("session_id=");
-		data_string_builder.append(session_id);
-		data_string_builder.append("&create_time=");
-		data_string_builder.append(create_time);
-		data_string_builder.append("&nonce=");
-		data_string_builder.append(nonce);
-		data_string_builder.append("&role=");
-		data_string_builder.append(role);
-
-		if(!RoleConstants.SUBSCRIBER.equals(role) &&
-		    !RoleConstants.PUBLISHER.equals(role) &&
-		    !RoleConstants.MODERATOR.equals(role) &&
-		    !"".equals(role))
-		    throw new OpenTokException(role + " is not a recognized role");
-
-		if(expire_time != null) {
-		    if(expire_time < (System.currentTimeMillis() / 1000)-1)
-				throw new OpenTokException("Expire time must be in the future");
-		    if(expire_time > (System.currentTimeMillis() / 1000 + 2592000))
-				throw new OpenTokException("Expire time must be in the next 30 days");
-			data_string_builder.append("&expire_time=");
-			data_string_builder.append(expire_time);
-		}
-		if (connection_data != null) {
-		    if(connection_data.length() > 1000)
-		        throw new OpenTokException("Connection data must be less than 1000 characters");
-			data_string_builder.append("&connection_data=");
-			try {
-				data_string_builder.append(URLEncoder.encode(connection_data, "UTF-8"));
-			} catch (UnsupportedEncodingException e) {
-				throw new RuntimeException("Error during URL encode of your connection_data.", e);
-			};
-		}
-
-
-		StringBuilder token_string_builder = new StringBuilder();
-		try {
-			token_string_builder.append("T1==");
-
-			StringBuilder inner_builder = new StringBuilder();
-			inner_builder.append("partner_id=");
-			inner_builder.append(this.api_key);
+    }
 
-			inner_builder.append("&sig=");
+	/**
+	 * Returns a template that generates tokens for session_id with the given role and
+	 * connection_data. The session_id, role and connection_data are validated once here, so
+	 * generating many tokens from one template is cheaper than calling generate_token repeatedly.
+	 */
+	public TokenTemplate token_template(String session_id, String role, String connection_data) throws OpenTokException {
+		validate_session_id(session_id);
+		return new TokenTemplate(this, session_id, role, connection_data);
+	}
 
-			inner_builder.append(GenerateMac.calculateRFC2104HMAC(data_string_builder.toString(),
-																  this.api_secret));
-			inner_builder.append(":");
-			inner_builder.append(data_string_builder.toString());
+	public TokenTemplate token_template(String session_id, String role) throws OpenTokException {
+		return token_template(session_id, role, null);
+	}
 
-			token_string_builder.append(Base64.encode(inner_builder.toString()));
+	/**
+	 * Decodes a token generated with this api_key and checks its signature locally, without an
+	 * API call. Throws an OpenTokException if the token is malformed, belongs to another partner
+	 * or was not signed with api_secret. Expiry is not checked, see TokenClaims.isExpired.
+	 */
+	public TokenClaims verify_token(String token) throws OpenTokException {
+		return token_verifier().verify(token);
+	}
 
-		}catch (java.security.SignatureException e) {
-				throw new OpenTokException(e.getMessage());
+	/**
+	 * Returns the verifier behind verify_token, e.g. for TokenVerifier.is_valid.
+	 */
+	public TokenVerifier token_verifier() throws OpenTokException {
+		TokenVerifier v = verifier;
+		if (v == null) {
+			v = new TokenVerifier(this.api_key, signer());
+			verifier = v;
 		}
-
-		return token_string_builder.toString();
+		return v;
 	}
-    
 
 	/**
 	 * Creates a new session.
@@ -150,6 +368,20 @@ public class OpenTokSDK {
 		return this.create_session(location, params);
 	}
 
+	/**
+	 * Same as create_session(location, properties), but the call must complete within timeout_millis
+	 * (0 for no limit) instead of the SDK's timeout, see setTimeout.
+	 */
+    public OpenTokSession create_session(String location, SessionProperties properties, long timeout_millis) throws OpenTokException {
+		Map<String, String> params;
+		if(properties != null)
+			params = properties.to_map();
+		else
+			params = new HashMap<String, String>();
+
+		return this.create_session(location, params, timeout_millis);
+	}
+
 	/**
 	 * Overloaded functions
 	 * These work the same as those defined above, but with optional params filled in with defaults
@@ -178,15 +410,183 @@ public class OpenTokSDK {
 	}
 
     public OpenTokSession create_session(String location, Map<String, String> params) throws OpenTokException {
-		params.put("location", location);
-		TokBoxXML xmlResponse = this.do_request("/session/create", params);
-		if(xmlResponse.hasElement("error", "Errors")) {
-			throw new OpenTokException("Unable to create session");
+		return request_session(location, params, SDK_TIMEOUT);
+	}
+
+    public OpenTokSession create_session(String location, Map<String, String> params, long timeout_millis) throws OpenTokException {
+		validate_timeout(timeout_millis);
+		return request_session(location, params, timeout_millis);
+	}
+
+	private OpenTokSession request_session(String location, Map<String, String> params, long timeout_millis) throws OpenTokException {
+		long start = System.nanoTime();
+		try {
+			params.put("location", location);
+			String response = timeout_millis == SDK_TIMEOUT ? this.do_request_raw("/session/create", params)
+					: this.do_request_raw("/session/create", params, timeout_millis);
+			OpenTokSession session = read_session(response);
+			metrics.record(Operation.CREATE_SESSION, Outcome.SUCCESS, System.nanoTime() - start);
+			return session;
+		} catch (OpenTokException e) {
+			metrics.record(Operation.CREATE_SESSION, Outcome.of(e), System.nanoTime() - start);
+			throw e;
 		}
-		String session_id = xmlResponse.getElementValue("session_id", "Session");
-		return new OpenTokSession(session_id);
+	}
+
+	/**
+	 * Creates a new session with the properties of a prebuilt profile. The profile's encoded
+	 * params are copied into the request body as they are, followed by the location.
+	 */
+    public OpenTokSession create_session(String location, SessionProfile profile) throws OpenTokException {
+		return request_session(location, profile, SDK_TIMEOUT);
+	}
+
+    public OpenTokSession create_session(String location, SessionProfile profile, long timeout_millis) throws OpenTokException {
+		validate_timeout(timeout_millis);
+		return request_session(location, profile, timeout_millis);
+	}
+
+	private OpenTokSession request_session(String location, SessionProfile profile, long timeout_millis) throws OpenTokException {
+		long start = System.nanoTime();
+		try {
+			byte[] body;
+			if (location == null) {
+				body = new byte[profile.encoded_length()];
+				profile.write_encoded(body, 0);
+			} else {
+				body = new byte[profile.encoded_length() + LOCATION.length + FormEncoder.encodedLength(location, true) + 1];
+				int pos = profile.write_encoded(body, 0);
+				System.arraycopy(LOCATION, 0, body, pos, LOCATION.length);
+				pos = FormEncoder.encode(location, true, body, pos + LOCATION.length);
+				body[pos] = '&';
+			}
+			String response = timeout_millis == SDK_TIMEOUT ? this.do_request_raw("/session/create", body)
+					: this.do_request_raw("/session/create", body, timeout_millis);
+			OpenTokSession session = read_session(response);
+			metrics.record(Operation.CREATE_SESSION, Outcome.SUCCESS, System.nanoTime() - start);
+			return session;
+		} catch (OpenTokException e) {
+			metrics.record(Operation.CREATE_SESSION, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	private OpenTokSession read_session(String response) throws OpenTokException {
+		// TokBoxResponseReader throws on an Errors response
+		return new OpenTokSession(this.read_response(response, "Session/session_id")[0]);
 	}
     
+	/**
+	 * Asynchronous versions of create_session.
+	 * The API call runs on the SDK's async executor (see setAsyncExecutor) and the returned future
+	 * completes with the session, or exceptionally with the OpenTokException create_session would throw.
+	 */
+    public CompletableFuture<OpenTokSession> create_session_async() {
+		return create_session_async(null, new HashMap<String, String>());
+	}
+
+    public CompletableFuture<OpenTokSession> create_session_async(String location) {
+		return create_session_async(location, new HashMap<String, String>());
+	}
+
+    public CompletableFuture<OpenTokSession> create_session_async(String location, SessionProperties properties) {
+		Map<String, String> params;
+		if(properties != null)
+			params = properties.to_map();
+		else
+			params = new HashMap<String, String>();
+
+		return create_session_async(location, params);
+	}
+
+    public CompletableFuture<OpenTokSession> create_session_async(final String location, final Map<String, String> params) {
+		final CompletableFuture<OpenTokSession> future = new CompletableFuture<OpenTokSession>();
+		try {
+			async_executor().execute(new Runnable() {
+				public void run() {
+					try {
+						future.complete(create_session(location, params));
+					} catch (Throwable t) {
+						future.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(new OpenTokException("Unable to schedule session creation: " + e.getMessage()));
+		}
+		return future;
+	}
+
+	/**
+	 * Creates one session per spec with at most 20 create_session calls in flight,
+	 * see create_sessions(specs, concurrency).
+	 */
+	public BulkSessionResult create_sessions(List<SessionSpec> specs) throws OpenTokException {
+		return create_sessions(specs, DEFAULT_BULK_CONCURRENCY);
+	}
+
+	/**
+	 * Creates one session per spec, running at most concurrency create_session calls at a time
+	 * on the async executor. The calls share this SDK's transport and auth header, so with a
+	 * PooledTokBoxTransport they reuse its connections. A failed spec does not stop the others; its exception is
+	 * reported in the result. Blocks until every spec has been attempted.
+	 */
+	public BulkSessionResult create_sessions(final List<SessionSpec> specs, int concurrency) throws OpenTokException {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		}
+		final OpenTokSession[] sessions = new OpenTokSession[specs.size()];
+		final OpenTokException[] failures = new OpenTokException[specs.size()];
+		final Semaphore permits = new Semaphore(concurrency);
+		Executor executor = async_executor();
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < sessions.length; i++) {
+				final int index = i;
+				final SessionSpec spec = specs.get(i);
+				permits.acquire();
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								sessions[index] = spec.profile != null ? create_session(spec.location, spec.profile)
+										: create_session(spec.location, spec.properties);
+							} catch (OpenTokException e) {
+								failures[index] = e;
+							} catch (RuntimeException e) {
+								failures[index] = new OpenTokException("Unable to create session: " + e);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					permits.release();
+					failures[index] = new OpenTokException("Unable to schedule session creation: " + e.getMessage());
+				}
+			}
+			// Every task returns its permit when done
+			permits.acquire(concurrency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokException("Interrupted while creating sessions");
+		}
+		return new BulkSessionResult(sessions, failures, System.nanoTime() - start);
+	}
+
+	/**
+	 * Sets the executor used by the *_async methods and create_sessions. Defaults to a shared virtual-thread executor
+	 * where the JDK supports it, otherwise a shared cached pool of daemon threads.
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		this.async_executor = executor;
+	}
+
+	protected Executor async_executor() {
+		Executor executor = this.async_executor;
+		return executor != null ? executor : AsyncExecutors.defaultExecutor();
+	}
+
     private static String repeatString(String str, int times){
         StringBuilder ret = new StringBuilder();
         for(int i = 0;i < times;i++) ret.append(str);
@@ -194,11 +594,184 @@ public class OpenTokSDK {
     }
 
 	protected TokBoxXML do_request(String url, Map<String, String> params) throws OpenTokException {
-		TokBoxNetConnection n = new TokBoxNetConnection();
-		Map<String, String> headers = new HashMap<String, String>();
-		headers.put("X-TB-PARTNER-AUTH", this.api_key + ":" + this.api_secret);
+		String response = do_request_raw(url, params);
+		RequestEventListener listener = this.event_listener;
+		TokBoxRequest request = take_sent_request();
+		long start = System.nanoTime();
+		if (listener != null) {
+			listener.parseStart(request, start);
+		}
+		try {
+			TokBoxXML xml = new TokBoxXML(response);
+			metrics.record(Operation.XML_PARSE, Outcome.SUCCESS, System.nanoTime() - start);
+			return xml;
+		} catch (OpenTokException e) {
+			metrics.record(Operation.XML_PARSE, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		} finally {
+			if (listener != null) {
+				listener.parseEnd(request, System.nanoTime());
+			}
+		}
+	}
 
-		return new TokBoxXML(n.request(API_Config.API_URL + url, params, headers));
+	/**
+	 * Reads the given paths from a response with TokBoxResponseReader, recording the parse in the SDK metrics.
+	 */
+	protected String[] read_response(String response, String... paths) throws OpenTokException {
+		RequestEventListener listener = this.event_listener;
+		TokBoxRequest request = take_sent_request();
+		long start = System.nanoTime();
+		if (listener != null) {
+			listener.parseStart(request, start);
+		}
+		try {
+			String[] values = TokBoxResponseReader.read(response, paths);
+			metrics.record(Operation.XML_PARSE, Outcome.SUCCESS, System.nanoTime() - start);
+			return values;
+		} catch (OpenTokException e) {
+			metrics.record(Operation.XML_PARSE, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		} finally {
+			if (listener != null) {
+				listener.parseEnd(request, System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * The request whose response this thread is about to parse, as left by send(), or null when
+	 * the response did not come from send (e.g. an overridden do_request_raw) or no listener was installed.
+	 */
+	private TokBoxRequest take_sent_request() {
+		TokBoxRequest request = sent_request.get();
+		if (request != null) {
+			sent_request.remove();
+		}
+		return request;
+	}
+
+	/**
+	 * Sends the request and returns the raw response body, for callers that read it with
+	 * TokBoxResponseReader instead of building a TokBoxXML document.
+	 */
+	protected String do_request_raw(String url, Map<String, String> params) throws OpenTokException {
+		return send(new TokBoxRequest(this.api_url + url, params, this.auth_headers), this.timeout_millis);
+	}
+
+	/**
+	 * Same as do_request_raw(url, params), with the params already form-encoded.
+	 */
+	protected String do_request_raw(String url, byte[] body) throws OpenTokException {
+		return send(new TokBoxRequest(this.api_url + url, body, this.auth_headers), this.timeout_millis);
+	}
+
+	/**
+	 * Same as do_request_raw(url, params), with timeout_millis (0 for none) instead of the SDK's timeout.
+	 */
+	protected String do_request_raw(String url, Map<String, String> params, long timeout_millis) throws OpenTokException {
+		return send(new TokBoxRequest(this.api_url + url, params, this.auth_headers), timeout_millis);
+	}
+
+	protected String do_request_raw(String url, byte[] body, long timeout_millis) throws OpenTokException {
+		return send(new TokBoxRequest(this.api_url + url, body, this.auth_headers), timeout_millis);
+	}
+
+	private String send(TokBoxRequest request, long timeout_millis) throws OpenTokException {
+		RequestEventListener listener = this.event_listener;
+		long start = System.nanoTime();
+		if (timeout_millis > 0) {
+			request = request.withDeadline(start + TimeUnit.MILLISECONDS.toNanos(timeout_millis));
+		}
+		if (listener != null) {
+			request = request.withListener(listener);
+			listener.callStart(request, start);
+		}
+		try {
+			String response = transport().request(request);
+			long end = System.nanoTime();
+			metrics.record(Operation.DO_REQUEST, Outcome.SUCCESS, end - start);
+			if (listener != null) {
+				listener.callEnd(request, end);
+				sent_request.set(request);
+			}
+			return response;
+		} catch (OpenTokException e) {
+			long end = System.nanoTime();
+			metrics.record(Operation.DO_REQUEST, Outcome.of(e), end - start);
+			if (listener != null) {
+				listener.callFailed(request, end, e);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Counters and latency histograms for this SDK instance's generate_token, create_session,
+	 * do_request and response parsing calls.
+	 */
+	public SdkMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the transport used for API requests. By default all OpenTokSDK instances share one
+	 * TokBoxNetConnection, which uses the JVM's proxy settings and follows redirects. A
+	 * PooledTokBoxTransport keeps connections alive across calls but connects directly and bounds
+	 * the calls in flight per route, so it has to be set explicitly.
+	 */
+	public void setTransport(TokBoxTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Sets the listener that receives the timing of each phase of this SDK's API requests, or
+	 * null (the default) for none.
+	 */
+	public void setEventListener(RequestEventListener listener) {
+		this.event_listener = listener;
+	}
+
+	public RequestEventListener getEventListener() {
+		return event_listener;
+	}
+
+	/**
+	 * Sets how long an API call may take, from sending it until the whole response is in, before it
+	 * fails with an OpenTokTimeoutException; 0 for no limit. The deadline bounds waiting for a pooled
+	 * connection, connecting and reading the response. Defaults to DEFAULT_TIMEOUT_MILLIS.
+	 */
+	public void setTimeout(long timeout_millis) {
+		validate_timeout(timeout_millis);
+		this.timeout_millis = timeout_millis;
+	}
+
+	public long getTimeout() {
+		return timeout_millis;
+	}
+
+	private static void validate_timeout(long timeout_millis) {
+		if (timeout_millis < 0) {
+			throw new IllegalArgumentException("timeout_millis must not be negative");
+		}
+	}
+
+	protected TokBoxTransport transport() {
+		TokBoxTransport t = this.transport;
+		if (t != null) {
+			return t;
+		}
+		t = default_transport;
+		if (t == null) {
+			synchronized (OpenTokSDK.class) {
+				t = default_transport;
+				if (t == null) {
+					t = new TokBoxNetConnection();
+					default_transport = t;
+				}
+			}
+		}
+		return t;
 	}
 
 	protected static String join(List<String> s, String delimiter) throws java.io.UnsupportedEncodingException{
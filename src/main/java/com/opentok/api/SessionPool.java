@@ -0,0 +1,318 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.api.constants.SessionProfile;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.AsyncExecutors;
+
+/**
+ * Opt-in pool of pre-created sessions on top of OpenTokSDK.create_session(String, SessionProfile).
+ *
+ * Sessions are pooled per location and SessionProfile; SessionProperties are converted to the
+ * equivalent profile. Only profiles passed to register() are pooled, so the number of pools is
+ * fixed by the caller rather than by the locations seen in requests. When a profile
+ * holds fewer than lowWatermark sessions, it is refilled up to highWatermark in the background on the
+ * SDK's async executor. Sessions older than maxAgeMillis are discarded rather than handed out.
+ * acquire() dequeues a pooled session when one is available and otherwise falls back to a
+ * synchronous create_session call; for a profile that was never registered it always does.
+ */
+public class SessionPool implements Closeable {
+
+	private final OpenTokSDK sdk;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final long maxAgeMillis;
+	private final ConcurrentHashMap<ProfileKey, Profile> profiles = new ConcurrentHashMap<ProfileKey, Profile>();
+	private final ScheduledExecutorService maintenance;
+	private volatile boolean closed;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong refills = new AtomicLong();
+	private final AtomicLong refillFailures = new AtomicLong();
+	private final AtomicLong refillNanosTotal = new AtomicLong();
+	private final AtomicLong refillNanosMax = new AtomicLong();
+
+	private static final class ProfileKey {
+		final String location;
+		final SessionProfile profile;
+
+		ProfileKey(String location, SessionProfile profile) {
+			this.location = location;
+			this.profile = profile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ProfileKey)) {
+				return false;
+			}
+			ProfileKey other = (ProfileKey) o;
+			return (location == null ? other.location == null : location.equals(other.location))
+					&& profile.equals(other.profile);
+		}
+
+		@Override
+		public int hashCode() {
+			return (location == null ? 0 : location.hashCode()) * 31 + profile.hashCode();
+		}
+	}
+
+	private static final class Entry {
+		final OpenTokSession session;
+		final long createdAt;
+
+		Entry(OpenTokSession session, long createdAt) {
+			this.session = session;
+			this.createdAt = createdAt;
+		}
+	}
+
+	private static final class Profile {
+		final ProfileKey key;
+		final ConcurrentLinkedDeque<Entry> sessions = new ConcurrentLinkedDeque<Entry>();
+		final AtomicInteger size = new AtomicInteger();
+		final AtomicBoolean refilling = new AtomicBoolean();
+
+		Profile(ProfileKey key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Snapshot of the pool counters.
+	 */
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		public final long expired;
+		public final long refills;
+		public final long refillFailures;
+		public final long refillNanosTotal;
+		public final long refillNanosMax;
+		public final int pooled;
+
+		Stats(long hits, long misses, long expired, long refills, long refillFailures,
+				long refillNanosTotal, long refillNanosMax, int pooled) {
+			this.hits = hits;
+			this.misses = misses;
+			this.expired = expired;
+			this.refills = refills;
+			this.refillFailures = refillFailures;
+			this.refillNanosTotal = refillNanosTotal;
+			this.refillNanosMax = refillNanosMax;
+			this.pooled = pooled;
+		}
+
+		public double getHitRatio() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		/** Mean latency in nanoseconds of the create_session calls made to refill the pool. */
+		public long getMeanRefillNanos() {
+			return refills == 0 ? 0 : refillNanosTotal / refills;
+		}
+	}
+
+	public SessionPool(OpenTokSDK sdk, int lowWatermark, int highWatermark, long maxAgeMillis) {
+		if (lowWatermark < 0 || highWatermark < 1 || lowWatermark > highWatermark) {
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high and high >= 1");
+		}
+		if (maxAgeMillis <= 0) {
+			throw new IllegalArgumentException("maxAgeMillis must be positive");
+		}
+		this.sdk = sdk;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.maxAgeMillis = maxAgeMillis;
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(AsyncExecutors.daemonThreadFactory("opentok-session-pool"));
+		long period = Math.max(10, Math.min(maxAgeMillis / 4, 1000));
+		this.maintenance.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				maintain();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts pooling sessions for a profile. acquire() only takes pooled sessions for registered
+	 * profiles.
+	 */
+	public void register(String location, SessionProperties properties) {
+		register(location, SessionProfile.from(properties));
+	}
+
+	public void register(String location, SessionProfile profile) {
+		refill_if_low(profile(location, profile));
+	}
+
+	public void register(String location) {
+		register(location, SessionProfile.DEFAULT);
+	}
+
+	/**
+	 * Returns a pre-created session for the profile if one is pooled, otherwise creates one synchronously.
+	 * A profile that was not registered is not pooled and counts as a miss.
+	 */
+	public OpenTokSession acquire(String location, SessionProperties properties) throws OpenTokException {
+		return acquire(location, SessionProfile.from(properties));
+	}
+
+	public OpenTokSession acquire(String location, SessionProfile sessionProfile) throws OpenTokException {
+		Profile profile = profiles.get(new ProfileKey(location, sessionProfile));
+		Entry entry = null;
+		if (profile != null) {
+			entry = poll_fresh(profile, System.currentTimeMillis());
+			refill_if_low(profile);
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+			return entry.session;
+		}
+		misses.incrementAndGet();
+		return sdk.create_session(location, sessionProfile);
+	}
+
+	public OpenTokSession acquire(String location) throws OpenTokException {
+		return acquire(location, SessionProfile.DEFAULT);
+	}
+
+	/** Number of sessions currently pooled for a profile. */
+	public int size(String location, SessionProperties properties) {
+		return size(location, SessionProfile.from(properties));
+	}
+
+	public int size(String location) {
+		return size(location, SessionProfile.DEFAULT);
+	}
+
+	public int size(String location, SessionProfile sessionProfile) {
+		Profile profile = profiles.get(new ProfileKey(location, sessionProfile));
+		return profile == null ? 0 : profile.size.get();
+	}
+
+	public Stats getStats() {
+		int pooled = 0;
+		for (Profile profile : profiles.values()) {
+			pooled += profile.size.get();
+		}
+		return new Stats(hits.get(), misses.get(), expired.get(), refills.get(), refillFailures.get(),
+				refillNanosTotal.get(), refillNanosMax.get(), pooled);
+	}
+
+	/**
+	 * Stops refilling and drops all pooled sessions.
+	 */
+	public void close() {
+		closed = true;
+		maintenance.shutdownNow();
+		for (Profile profile : profiles.values()) {
+			while (profile.sessions.pollFirst() != null) {
+				profile.size.decrementAndGet();
+			}
+		}
+	}
+
+	private Profile profile(String location, SessionProfile sessionProfile) {
+		ProfileKey key = new ProfileKey(location, sessionProfile);
+		Profile profile = profiles.get(key);
+		if (profile == null) {
+			profile = new Profile(key);
+			Profile existing = profiles.putIfAbsent(key, profile);
+			if (existing != null) {
+				profile = existing;
+			}
+		}
+		return profile;
+	}
+
+	private Entry poll_fresh(Profile profile, long now) {
+		// Hand out the oldest sessions first so fewer of them age out
+		Entry entry;
+		while ((entry = profile.sessions.pollLast()) != null) {
+			profile.size.decrementAndGet();
+			if (now - entry.createdAt < maxAgeMillis) {
+				return entry;
+			}
+			expired.incrementAndGet();
+		}
+		return null;
+	}
+
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		for (Profile profile : profiles.values()) {
+			// Oldest sessions are at the tail
+			Entry entry;
+			while ((entry = profile.sessions.peekLast()) != null && now - entry.createdAt >= maxAgeMillis) {
+				if (profile.sessions.removeLastOccurrence(entry)) {
+					profile.size.decrementAndGet();
+					expired.incrementAndGet();
+				}
+			}
+			refill_if_low(profile);
+		}
+	}
+
+	private void refill_if_low(final Profile profile) {
+		if (closed || profile.size.get() >= Math.max(lowWatermark, 1) || !profile.refilling.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			sdk.async_executor().execute(new Runnable() {
+				public void run() {
+					try {
+						refill(profile);
+					} finally {
+						profile.refilling.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			profile.refilling.set(false);
+		}
+	}
+
+	private void refill(Profile profile) {
+		while (!closed && profile.size.get() < highWatermark) {
+			long start = System.nanoTime();
+			OpenTokSession session;
+			try {
+				session = sdk.create_session(profile.key.location, profile.key.profile);
+			} catch (Exception e) {
+				// Retried on the next maintenance pass
+				refillFailures.incrementAndGet();
+				return;
+			}
+			long elapsed = System.nanoTime() - start;
+			refills.incrementAndGet();
+			refillNanosTotal.addAndGet(elapsed);
+			long max;
+			while (elapsed > (max = refillNanosMax.get()) && !refillNanosMax.compareAndSet(max, elapsed)) {
+			}
+			// New sessions go to the head so the tail always holds the oldest
+			profile.sessions.offerFirst(new Entry(session, System.currentTimeMillis()));
+			profile.size.incrementAndGet();
+		}
+	}
+}
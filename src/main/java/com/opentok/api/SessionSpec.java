@@ -0,0 +1,43 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import com.opentok.api.constants.SessionProfile;
+import com.opentok.api.constants.SessionProperties;
+
+/**
+ * Options for one session in a batch passed to OpenTokSDK.create_sessions.
+ * The fields have the same meaning as the create_session arguments.
+ */
+public class SessionSpec {
+
+	public final String location;
+	public final SessionProperties properties;
+	/** Used instead of properties when set. */
+	public final SessionProfile profile;
+
+	public SessionSpec(String location, SessionProperties properties) {
+		this.location = location;
+		this.properties = properties;
+		this.profile = null;
+	}
+
+	public SessionSpec(String location, SessionProfile profile) {
+		this.location = location;
+		this.properties = null;
+		this.profile = profile;
+	}
+
+	public SessionSpec(String location) {
+		this(location, (SessionProperties) null);
+	}
+
+	public SessionSpec() {
+		this(null, (SessionProperties) null);
+	}
+}
@@ -10,46 +10,77 @@ package com.opentok.api;
 import java.util.*;
 import java.net.*;
 import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.RequestEventListener;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+
+/**
+ * Default transport: opens a new HttpURLConnection for every request and disconnects it afterwards.
+ * HttpURLConnection picks a proxy from the JVM's ProxySelector (http.proxyHost etc.) and follows
+ * redirects. PooledTokBoxTransport can be selected with OpenTokSDK.setTransport to reuse connections.
+ *
+ * Connecting times out after connectTimeoutMillis, and for a request with a deadline connecting
+ * and each read are bounded by the time left. Failures are thrown like PooledTokBoxTransport does:
+ * an OpenTokTimeoutException when time ran out, an OpenTokRequestException with the status for HTTP
+ * 429, 5xx and error statuses without a body.
+ */
+public class TokBoxNetConnection implements TokBoxTransport {
+
+	private final int connectTimeoutMillis;
+
+	public TokBoxNetConnection() {
+		this(PooledTokBoxTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+	}
 
+	/**
+	 * @param connectTimeoutMillis  longest wait to connect, 0 for none
+	 */
+	public TokBoxNetConnection(int connectTimeoutMillis) {
+		if (connectTimeoutMillis < 0) {
+			throw new IllegalArgumentException("connectTimeoutMillis must not be negative");
+		}
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
 
-class TokBoxNetConnection {
-
-
-	public String request(String reqString, Map<String, String> paramList, Map<String, String> headers){
+	public String request(TokBoxRequest request) throws OpenTokException {
+		return request(request.getUrl(), request.getBody(), request.getHeaders(), request);
+	}
 
-		StringBuilder returnString = new StringBuilder();
+	private String request(String reqString, byte[] body, Map<String, String> headers, TokBoxRequest request) throws OpenTokException {
+		RequestEventListener listener = request.getListener();
+		if (request.isExpired()) {
+			throw new OpenTokTimeoutException("Request to " + reqString + " timed out before connecting", true);
+		}
 
-		URL url = null;
 		HttpURLConnection conn = null;
-		BufferedReader br = null;
-		OutputStreamWriter wr = null;
-		BufferedWriter bufWriter = null;
+		OutputStream out = null;
+		InputStream in = null;
 
 		try {
-
-			StringBuilder dataString = new StringBuilder();
-
-			for(Iterator<String> i = paramList.keySet().iterator(); i.hasNext(); ) {
-				String key = i.next();
-				String value = paramList.get(key);
-
-				if(null != value) {
-					value = URLEncoder.encode(paramList.get(key), "UTF-8").replaceAll("\\+", "%20");
-					dataString.append(URLEncoder.encode(key, "UTF-8")).append("=").append(value).append("&");
-				}
-			}
-			url = new URL(reqString);
+			URL url = new URL(reqString);
 			conn = (HttpURLConnection) url.openConnection();
 
 			conn.setDoOutput(true);
 			conn.setDoInput(true);
 			conn.setUseCaches(false);
+			// Sends Content-Length: body.length and streams the body without buffering a copy
+			conn.setFixedLengthStreamingMode(body.length);
+
+			int timeout = request.timeoutMillis();
+			conn.setConnectTimeout(timeout != 0 && (connectTimeoutMillis == 0 || timeout < connectTimeoutMillis) ? timeout : connectTimeoutMillis);
+			conn.setReadTimeout(timeout);
 
 			conn.setRequestMethod("POST");
 			conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
-			conn.setRequestProperty("Content-Length", Integer.toString(dataString.toString().length()));
 			conn.setRequestProperty("Accept-Charset", "utf-8");
 			conn.setRequestProperty("Accept", "text/html, application/xhtml+xml,application/xml");
+			conn.setRequestProperty("Accept-Encoding", "gzip");
 
 			for(Iterator<String> i = headers.keySet().iterator(); i.hasNext(); ) {
 				String key = i.next();
@@ -57,44 +88,75 @@ class TokBoxNetConnection {
 				conn.setRequestProperty(key, value);
 			}
 
-			wr = new OutputStreamWriter(conn.getOutputStream(), "UTF8");
-			bufWriter = new BufferedWriter( wr );
-			bufWriter.write(dataString.toString());
-			bufWriter.flush();
+			if (listener != null) {
+				listener.connectStart(request, System.nanoTime());
+				conn.connect();
+				long now = System.nanoTime();
+				listener.connectEnd(request, now);
+				listener.connectionAcquired(request, now, false);
+				listener.requestWriteStart(request, now);
+			}
+			out = conn.getOutputStream();
+			out.write(body);
+			out.flush();
+			if (listener != null) {
+				listener.requestWriteEnd(request, System.nanoTime());
+			}
+			if (request.hasDeadline()) {
+				if (request.isExpired()) {
+					throw new SocketTimeoutException("Deadline passed");
+				}
+				conn.setReadTimeout(request.timeoutMillis());
+			}
 
-			br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF8"));
+			// Blocks until the headers are in, the first byte is not visible on its own
+			int status = conn.getResponseCode();
+			if (listener != null) {
+				long now = System.nanoTime();
+				listener.responseStart(request, now);
+				listener.responseHeadersEnd(request, now, status);
+			}
 
-			String str;
-			while(null != ((str = br.readLine())))
-				{
-					returnString.append(str);
-					returnString.append("\n");
+			in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+			ByteArrayOutputStream response = new ByteArrayOutputStream(1024);
+			if (in != null) {
+				if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+					in = new GZIPInputStream(in);
+				}
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					response.write(buffer, 0, n);
 				}
+			}
+			if (listener != null) {
+				listener.responseBodyEnd(request, System.nanoTime(), response.size());
+			}
+			if (status == 429 || status >= 500 || ((status < 200 || status >= 300) && response.size() == 0)) {
+				throw new OpenTokRequestException("Request to " + reqString + " failed with HTTP " + status, status);
+			}
+			return response.toString("UTF-8");
+		} catch (SocketTimeoutException e) {
+			throw new OpenTokTimeoutException("Request to " + reqString + " timed out: " + e.getMessage());
 		} catch(IOException e) {
-			e.printStackTrace();
+			throw new OpenTokRequestException("Request to " + reqString + " failed: " + e);
 		} finally {
 			try {
 				if(null != conn) {
 					conn.disconnect();
 				}
 
-				if(null != wr) {
-					wr.close();
+				if(null != out) {
+					out.close();
 				}
 
-				if(null != bufWriter) {
-					bufWriter.close();
-				}
-
-				if(null != br) {
-					br.close();
+				if(null != in) {
+					in.close();
 				}
 			}
 			catch(IOException e) {
-				e.printStackTrace();
+				// the connection is gone either way
 			}
 		}
-
-		return returnString.toString();
 	}
 }
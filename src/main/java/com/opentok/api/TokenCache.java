@@ -0,0 +1,321 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Opt-in cache in front of OpenTokSDK.generate_token, for clients that reconnect repeatedly with
+ * the same session_id, role and connection_data.
+ *
+ * Tokens are cached per (session_id, role, connection_data, expiry bucket). A requested
+ * expire_time is rounded down to the start of its bucket of bucketSeconds, so every request in the
+ * bucket is served the same token, which never expires later than requested and at most
+ * bucketSeconds earlier. Tokens with the default expire time are reused for bucketSeconds after
+ * they were generated. A cached token is only handed out while it is valid for at least another
+ * bucketSeconds; an expire_time too close for that is generated as requested and not cached.
+ *
+ * The cache is split into segments, each an LRU map bounded by its share of maxEntries and of
+ * maxBytes, an estimate of the heap held by the cached keys and tokens. Tokens are generated
+ * outside the segment locks, so a miss never blocks other callers.
+ *
+ *     TokenCache cache = new TokenCache(sdk, 100000, 64 * 1024 * 1024);
+ *     String token = cache.generate_token(session_id, RoleConstants.SUBSCRIBER);
+ */
+public class TokenCache {
+
+	public static final long DEFAULT_BUCKET_SECONDS = 300;
+
+	private static final int MAX_SEGMENTS = 16;
+	/** Estimated bytes per entry besides its strings: key, entry and map node objects. */
+	private static final int ENTRY_OVERHEAD = 160;
+	/** Longest explicit expire time generate_token accepts, see TokenTemplate. */
+	private static final long MAX_EXPIRE_SECONDS = 2592000;
+
+	private final OpenTokSDK sdk;
+	private final long bucketSeconds;
+	private final Segment[] segments;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+
+	private static final class Key {
+		final String session_id;
+		final String role;
+		final String connection_data;
+		/** Start of the expiry bucket in seconds, or -1 for the default expire time. */
+		final long bucket;
+		final int hash;
+
+		Key(String session_id, String role, String connection_data, long bucket) {
+			this.session_id = session_id;
+			this.role = role;
+			this.connection_data = connection_data;
+			this.bucket = bucket;
+			int h = session_id.hashCode();
+			h = h * 31 + role.hashCode();
+			h = h * 31 + (connection_data == null ? 0 : connection_data.hashCode());
+			h = h * 31 + (int) (bucket ^ (bucket >>> 32));
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return hash == other.hash
+					&& bucket == other.bucket
+					&& session_id.equals(other.session_id)
+					&& role.equals(other.role)
+					&& (connection_data == null ? other.connection_data == null : connection_data.equals(other.connection_data));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		final String token;
+		/** Seconds since the epoch after which the token is no longer handed out. */
+		final long staleAt;
+		final int bytes;
+
+		Entry(String token, long staleAt, int bytes) {
+			this.token = token;
+			this.staleAt = staleAt;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class Segment {
+		final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		final int maxEntries;
+		final long maxBytes;
+		long bytes;
+
+		Segment(int maxEntries, long maxBytes) {
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+		}
+	}
+
+	/**
+	 * Snapshot of the cache counters.
+	 */
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+		public final long expired;
+		public final int entries;
+		public final long estimatedBytes;
+
+		Stats(long hits, long misses, long evictions, long expired, int entries, long estimatedBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.expired = expired;
+			this.entries = entries;
+			this.estimatedBytes = estimatedBytes;
+		}
+
+		public double getHitRatio() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+	}
+
+	public TokenCache(OpenTokSDK sdk, int maxEntries, long maxBytes) {
+		this(sdk, maxEntries, maxBytes, DEFAULT_BUCKET_SECONDS);
+	}
+
+	/**
+	 * @param maxEntries     most tokens kept
+	 * @param maxBytes       most estimated heap bytes held by the cached entries
+	 * @param bucketSeconds  width of the expiry buckets, and how long default-expiry tokens are reused
+	 */
+	public TokenCache(OpenTokSDK sdk, int maxEntries, long maxBytes, long bucketSeconds) {
+		if (sdk == null) {
+			throw new NullPointerException();
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("maxBytes must be positive");
+		}
+		if (bucketSeconds < 1 || bucketSeconds >= MAX_EXPIRE_SECONDS) {
+			throw new IllegalArgumentException("bucketSeconds must be between 1 and 30 days");
+		}
+		this.sdk = sdk;
+		this.bucketSeconds = bucketSeconds;
+		int count = Math.min(MAX_SEGMENTS, maxEntries);
+		this.segments = new Segment[count];
+		// The remainders go to the first segments, so the shares add up to the limits
+		for (int i = 0; i < count; i++) {
+			this.segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+					maxBytes / count + (i < maxBytes % count ? 1 : 0));
+		}
+	}
+
+	public String generate_token(String session_id) throws OpenTokException {
+		return generate_token(session_id, RoleConstants.PUBLISHER, null, null);
+	}
+
+	public String generate_token(String session_id, String role) throws OpenTokException {
+		return generate_token(session_id, role, null, null);
+	}
+
+	public String generate_token(String session_id, String role, Long expire_time) throws OpenTokException {
+		return generate_token(session_id, role, expire_time, null);
+	}
+
+	/**
+	 * Returns a cached token for the arguments if one is still fresh, otherwise generates one with
+	 * OpenTokSDK.generate_token and caches it. Arguments that generate_token rejects are passed
+	 * through to it uncached, so the same exceptions are thrown.
+	 */
+	public String generate_token(String session_id, String role, Long expire_time, String connection_data) throws OpenTokException {
+		long now = System.currentTimeMillis() / 1000;
+		if (session_id == null || role == null
+				|| (expire_time != null && (expire_time < now || expire_time > now + MAX_EXPIRE_SECONDS))) {
+			return sdk.generate_token(session_id, role, expire_time, connection_data);
+		}
+
+		long bucket = -1;
+		Long effective_expire = expire_time;
+		if (expire_time != null) {
+			bucket = expire_time / bucketSeconds * bucketSeconds;
+			if (bucket - bucketSeconds <= now) {
+				// Would not stay fresh long enough to be reused
+				misses.incrementAndGet();
+				return sdk.generate_token(session_id, role, expire_time, connection_data);
+			}
+			effective_expire = bucket;
+		}
+		Key key = new Key(session_id, role, connection_data, bucket);
+		Segment segment = segment(key);
+
+		synchronized (segment) {
+			Entry entry = segment.entries.get(key);
+			if (entry != null) {
+				if (now < entry.staleAt) {
+					hits.incrementAndGet();
+					return entry.token;
+				}
+				segment.entries.remove(key);
+				segment.bytes -= entry.bytes;
+				expired.incrementAndGet();
+			}
+		}
+
+		misses.incrementAndGet();
+		String token = sdk.generate_token(session_id, role, effective_expire, connection_data);
+		long staleAt = effective_expire == null ? now + bucketSeconds : effective_expire - bucketSeconds;
+		if (now < staleAt) {
+			put(segment, key, new Entry(token, staleAt, estimate_bytes(key, token)));
+		}
+		return token;
+	}
+
+	private void put(Segment segment, Key key, Entry entry) {
+		if (entry.bytes > segment.maxBytes) {
+			return;
+		}
+		synchronized (segment) {
+			Entry previous = segment.entries.put(key, entry);
+			if (previous != null) {
+				segment.bytes -= previous.bytes;
+			}
+			segment.bytes += entry.bytes;
+			// Least recently used entries are first in access order
+			Iterator<Entry> i = segment.entries.values().iterator();
+			while (segment.entries.size() > segment.maxEntries || segment.bytes > segment.maxBytes) {
+				Entry eldest = i.next();
+				i.remove();
+				segment.bytes -= eldest.bytes;
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private Segment segment(Key key) {
+		int h = key.hash ^ (key.hash >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	private static int estimate_bytes(Key key, String token) {
+		int chars = key.session_id.length() + key.role.length() + token.length()
+				+ (key.connection_data == null ? 0 : key.connection_data.length());
+		// Two bytes per char, the worst case for String
+		return ENTRY_OVERHEAD + 2 * chars;
+	}
+
+	/**
+	 * Drops every cached token for session_id.
+	 */
+	public void invalidate(String session_id) {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (Iterator<Map.Entry<Key, Entry>> i = segment.entries.entrySet().iterator(); i.hasNext(); ) {
+					Map.Entry<Key, Entry> e = i.next();
+					if (e.getKey().session_id.equals(session_id)) {
+						i.remove();
+						segment.bytes -= e.getValue().bytes;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached token.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+				segment.bytes = 0;
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+			}
+		}
+		return size;
+	}
+
+	public Stats getStats() {
+		int entries = 0;
+		long bytes = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				entries += segment.entries.size();
+				bytes += segment.bytes;
+			}
+		}
+		return new Stats(hits.get(), misses.get(), evictions.get(), expired.get(), entries, bytes);
+	}
+}
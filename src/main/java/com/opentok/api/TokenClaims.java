@@ -0,0 +1,179 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * The signed data of a token that passed TokenVerifier.verify.
+ *
+ * Only the raw data is kept; it is split into fields on the first getter call and each value is
+ * decoded when it is asked for, so callers that only check the signature or one claim do not pay
+ * for the rest. Instances are immutable and safe to share between threads.
+ */
+public class TokenClaims {
+
+	/** Lifetime of a token created without an explicit expire_time. */
+	public static final long DEFAULT_LIFETIME_SECONDS = 24 * 60 * 60;
+
+	private static final String[] KEYS = { "session_id", "create_time", "nonce", "role", "expire_time", "connection_data" };
+	private static final int SESSION_ID = 0;
+	private static final int CREATE_TIME = 1;
+	private static final int NONCE = 2;
+	private static final int ROLE = 3;
+	private static final int EXPIRE_TIME = 4;
+	private static final int CONNECTION_DATA = 5;
+
+	private final int partner_id;
+	private final byte[] data;
+	// start and end offsets into data of each value in KEYS, -1 when absent
+	private volatile int[] offsets;
+
+	TokenClaims(int partner_id, byte[] data) {
+		this.partner_id = partner_id;
+		this.data = data;
+	}
+
+	public int getPartnerId() {
+		return partner_id;
+	}
+
+	public String getSessionId() {
+		return value(SESSION_ID);
+	}
+
+	public String getRole() {
+		return value(ROLE);
+	}
+
+	/** Seconds since the epoch at which the token was generated. */
+	public long getCreateTime() {
+		return number(CREATE_TIME);
+	}
+
+	/** Expire time set when the token was generated, or null if it uses the default lifetime. */
+	public Long getExpireTime() {
+		return offsets()[EXPIRE_TIME * 2] < 0 ? null : Long.valueOf(number(EXPIRE_TIME));
+	}
+
+	public long getNonce() {
+		return number(NONCE);
+	}
+
+	/** The connection_data passed to generate_token, or null if there was none. */
+	public String getConnectionData() {
+		String value = value(CONNECTION_DATA);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Seconds since the epoch after which the token is no longer accepted. */
+	public long getExpiresAt() {
+		Long expire_time = getExpireTime();
+		return expire_time != null ? expire_time.longValue() : getCreateTime() + DEFAULT_LIFETIME_SECONDS;
+	}
+
+	public boolean isExpired() {
+		return getExpiresAt() < System.currentTimeMillis() / 1000;
+	}
+
+	/** The signed data string, session_id=...&create_time=... */
+	public String getData() {
+		return utf8(0, data.length);
+	}
+
+	@Override
+	public String toString() {
+		return getData();
+	}
+
+	private String value(int key) {
+		int[] o = offsets();
+		return o[key * 2] < 0 ? null : utf8(o[key * 2], o[key * 2 + 1]);
+	}
+
+	private long number(int key) {
+		int[] o = offsets();
+		int start = o[key * 2];
+		int end = o[key * 2 + 1];
+		if (start < 0 || start == end) {
+			throw new IllegalStateException(KEYS[key] + " is missing from the token");
+		}
+		boolean negative = data[start] == '-';
+		long value = 0;
+		for (int i = negative ? start + 1 : start; i < end; i++) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IllegalStateException(KEYS[key] + " is not a number");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	private String utf8(int start, int end) {
+		try {
+			return new String(data, start, end - start, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int[] offsets() {
+		int[] o = offsets;
+		if (o == null) {
+			o = new int[KEYS.length * 2];
+			java.util.Arrays.fill(o, -1);
+			int pos = 0;
+			while (pos < data.length) {
+				int amp = pos;
+				while (amp < data.length && data[amp] != '&') {
+					amp++;
+				}
+				int eq = pos;
+				while (eq < amp && data[eq] != '=') {
+					eq++;
+				}
+				if (eq < amp) {
+					int key = key(pos, eq);
+					// the first occurrence of a key wins
+					if (key >= 0 && o[key * 2] < 0) {
+						o[key * 2] = eq + 1;
+						o[key * 2 + 1] = amp;
+					}
+				}
+				pos = amp + 1;
+			}
+			offsets = o;
+		}
+		return o;
+	}
+
+	private int key(int start, int end) {
+		for (int k = 0; k < KEYS.length; k++) {
+			String name = KEYS[k];
+			if (name.length() == end - start) {
+				int i = 0;
+				while (i < name.length() && data[start + i] == name.charAt(i)) {
+					i++;
+				}
+				if (i == name.length()) {
+					return k;
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,289 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.FormEncoder;
+
+/**
+ * Streams large numbers of tokens for one session to an OutputStream or a channel such as a
+ * FileChannel, without collecting them in memory.
+ *
+ * Each token is written as one line, "token TAB role TAB connection_data LF", with the
+ * connection_data percent-encoded (so it cannot contain a tab or line break) and empty when null.
+ * Lines are written in no particular order.
+ *
+ * Producer threads on the SDK's async executor pull specs from the iterator in chunks and sign
+ * tokens straight into a fixed set of byte buffers, which the calling thread writes out. When the
+ * output is slower than signing, producers wait for a buffer to be written, so memory use is
+ * bounded by the buffers whatever the number of tokens.
+ *
+ *     TokenExporter.Result result = new TokenExporter(sdk).export(session_id, specs, fileChannel);
+ */
+public class TokenExporter {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/** Specs taken from the iterator at a time. */
+	private static final int CHUNK = 256;
+	/** A line holds a token and the encoded connection_data, which are each at most ~12KB. */
+	private static final int MIN_BUFFER_SIZE = 32 * 1024;
+	/** Queued by a producer after its last buffer. */
+	private static final ByteBuffer DONE = ByteBuffer.allocate(0);
+
+	private final OpenTokSDK sdk;
+	private final int parallelism;
+	private final int bufferSize;
+
+	/**
+	 * Outcome of an export.
+	 */
+	public static class Result {
+		private final long tokens;
+		private final long bytes;
+		private final long elapsedNanos;
+
+		Result(long tokens, long bytes, long elapsedNanos) {
+			this.tokens = tokens;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public long getTokens() {
+			return tokens;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/** Tokens written per second. */
+		public double getThroughput() {
+			return elapsedNanos == 0 ? 0 : tokens * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("tokens=%d bytes=%d elapsed=%.1fms throughput=%.0f/s",
+					tokens, bytes, elapsedNanos / 1e6, getThroughput());
+		}
+	}
+
+	public TokenExporter(OpenTokSDK sdk) {
+		this(sdk, Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param parallelism  number of producer threads; 2 * parallelism buffers are used
+	 * @param bufferSize   size in bytes of each buffer
+	 */
+	public TokenExporter(OpenTokSDK sdk, int parallelism, int bufferSize) {
+		if (sdk == null) {
+			throw new NullPointerException();
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("bufferSize must be at least " + MIN_BUFFER_SIZE);
+		}
+		this.sdk = sdk;
+		this.parallelism = parallelism;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Writes one token per spec to out, which is flushed but not closed.
+	 */
+	public Result export(String session_id, Iterator<TokenSpec> specs, OutputStream out) throws OpenTokException, IOException {
+		Result result = export(session_id, specs, Channels.newChannel(out));
+		out.flush();
+		return result;
+	}
+
+	/**
+	 * Writes one token per spec to channel, which is left open. If a spec is rejected, nothing more
+	 * is written and the exception for it is thrown; lines written before stay in the channel.
+	 */
+	public Result export(String session_id, Iterator<TokenSpec> specs, WritableByteChannel channel) throws OpenTokException, IOException {
+		long start = System.nanoTime();
+		sdk.validate_session_id(session_id);
+		Export export = new Export(session_id, specs);
+		for (int i = 0; i < parallelism * 2; i++) {
+			export.free.add(ByteBuffer.allocate(bufferSize));
+		}
+		for (int i = 0; i < parallelism; i++) {
+			try {
+				sdk.async_executor().execute(export.producer());
+			} catch (RejectedExecutionException e) {
+				export.fail(new OpenTokException("Unable to export tokens: " + e));
+				export.full.add(DONE);
+			}
+		}
+
+		long bytes = 0;
+		IOException writeFailure = null;
+		int running = parallelism;
+		try {
+			while (running > 0) {
+				ByteBuffer buffer = export.full.take();
+				if (buffer == DONE) {
+					running--;
+					continue;
+				}
+				if (writeFailure == null && export.failure == null) {
+					buffer.flip();
+					try {
+						while (buffer.hasRemaining()) {
+							bytes += channel.write(buffer);
+						}
+					} catch (IOException e) {
+						writeFailure = e;
+						export.stopped = true;
+					}
+				}
+				buffer.clear();
+				export.free.add(buffer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokException("Interrupted while exporting tokens");
+		} finally {
+			if (running > 0) {
+				// Left early, e.g. interrupted or the channel threw a RuntimeException. Unblock
+				// producers waiting for a buffer, they stop once they have one
+				export.stopped = true;
+				for (int i = 0; i < parallelism; i++) {
+					export.free.add(ByteBuffer.allocate(0));
+				}
+			}
+		}
+		if (writeFailure != null) {
+			throw writeFailure;
+		}
+		if (export.failure != null) {
+			throw export.failure;
+		}
+		return new Result(export.tokens.get(), bytes, System.nanoTime() - start);
+	}
+
+	/** State shared by the producers and the writer of one export. */
+	private final class Export {
+		final String session_id;
+		final Iterator<TokenSpec> specs;
+		// Memory is bounded by the buffers put into free, not by the capacity of the queues
+		final BlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<ByteBuffer>();
+		final BlockingQueue<ByteBuffer> full = new LinkedBlockingQueue<ByteBuffer>();
+		final AtomicLong tokens = new AtomicLong();
+		volatile boolean stopped;
+		volatile OpenTokException failure;
+
+		Export(String session_id, Iterator<TokenSpec> specs) {
+			this.session_id = session_id;
+			this.specs = specs;
+		}
+
+		/** Fills chunk from the iterator and returns how many specs it holds. */
+		int next_chunk(TokenSpec[] chunk) {
+			synchronized (specs) {
+				int n = 0;
+				while (n < chunk.length && !stopped && specs.hasNext()) {
+					chunk[n++] = specs.next();
+				}
+				return n;
+			}
+		}
+
+		Runnable producer() {
+			return new Runnable() {
+				public void run() {
+					ByteBuffer buffer = null;
+					try {
+						buffer = free.take();
+						TokenSpec[] chunk = new TokenSpec[CHUNK];
+						TokenTemplate template = null;
+						byte[] tail = null;
+						int n;
+						while ((n = next_chunk(chunk)) > 0) {
+							for (int i = 0; i < n && !stopped; i++) {
+								TokenSpec spec = chunk[i];
+								// Consecutive specs usually share role and connection_data
+								if (template == null || !template.matches(spec.role, spec.connection_data)) {
+									template = new TokenTemplate(sdk, session_id, spec.role, spec.connection_data);
+									tail = tail(spec.role, spec.connection_data);
+								}
+								if (buffer.remaining() < template.token_length(spec.expire_time) + tail.length) {
+									full.put(buffer);
+									buffer = free.take();
+									if (stopped) {
+										break;
+									}
+								}
+								template.generate_token(spec.expire_time, buffer);
+								buffer.put(tail);
+								tokens.incrementAndGet();
+							}
+						}
+					} catch (OpenTokException e) {
+						fail(e);
+					} catch (InterruptedException e) {
+						fail(new OpenTokException("Interrupted while exporting tokens"));
+					} catch (RuntimeException e) {
+						fail(new OpenTokException("Unable to export tokens: " + e));
+					} finally {
+						if (buffer != null) {
+							full.add(buffer);
+						}
+						full.add(DONE);
+					}
+				}
+			};
+		}
+
+		void fail(OpenTokException e) {
+			synchronized (this) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+			stopped = true;
+		}
+	}
+
+	/** "\trole\tconnection_data\n" */
+	private static byte[] tail(String role, String connection_data) {
+		int length = 3 + role.length() + (connection_data == null ? 0 : FormEncoder.encodedLength(connection_data, true));
+		byte[] tail = new byte[length];
+		int pos = 0;
+		tail[pos++] = '\t';
+		for (int i = 0; i < role.length(); i++) {
+			tail[pos++] = (byte) role.charAt(i);
+		}
+		tail[pos++] = '\t';
+		if (connection_data != null) {
+			pos = FormEncoder.encode(connection_data, true, tail, pos);
+		}
+		tail[pos] = '\n';
+		return tail;
+	}
+}
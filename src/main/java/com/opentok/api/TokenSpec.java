@@ -0,0 +1,35 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import com.opentok.api.constants.RoleConstants;
+
+/**
+ * Options for one token in a batch passed to OpenTokSDK.generate_tokens.
+ * The fields have the same meaning as the generate_token arguments.
+ */
+public class TokenSpec {
+
+	public final String role;
+	public final Long expire_time;
+	public final String connection_data;
+
+	public TokenSpec(String role, Long expire_time, String connection_data) {
+		this.role = role;
+		this.expire_time = expire_time;
+		this.connection_data = connection_data;
+	}
+
+	public TokenSpec(String role) {
+		this(role, null, null);
+	}
+
+	public TokenSpec() {
+		this(RoleConstants.PUBLISHER, null, null);
+	}
+}
@@ -0,0 +1,296 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.SignatureException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokValidationException;
+import com.opentok.metrics.Operation;
+import com.opentok.metrics.Outcome;
+import com.opentok.util.Base64;
+import com.opentok.util.HmacSigner;
+
+/**
+ * Token generator for one (session_id, role, connection_data) combination, created with
+ * OpenTokSDK.token_template.
+ *
+ * The session_id, role and connection_data are validated and encoded once, when the template is
+ * created. generate_token then only writes create_time, nonce and expire_time between the
+ * pre-encoded segments, signs and Base64-encodes into per-thread buffers, so the returned String
+ * is the only allocation. The ByteBuffer and Appendable overloads copy the ASCII token straight
+ * into the caller's buffer instead, and token_length gives its exact length beforehand.
+ * Templates are immutable and safe to share between threads.
+ */
+public class TokenTemplate {
+
+	private static final byte[] TOKEN_PREFIX = ascii("T1==");
+	private static final byte[] NONCE = ascii("&nonce=");
+	private static final byte[] EXPIRE_TIME = ascii("&expire_time=");
+
+	/** Longest decimal long, sign included. */
+	private static final int MAX_LONG_DIGITS = 20;
+
+	/** Nonces are drawn from [NONCE_MIN, Integer.MAX_VALUE], bounds included, so they are always NONCE_DIGITS long. */
+	private static final int NONCE_MIN = 1000000000;
+	private static final int NONCE_DIGITS = 10;
+
+	private static final ThreadLocal<byte[][]> buffers = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[2][512];
+		}
+	};
+
+	private final OpenTokSDK sdk;
+	private final String session_id;
+	private final String role;
+	private final String connection_data;
+
+	/** partner_id=...&sig= */
+	private final byte[] head;
+	/** session_id=...&create_time= */
+	private final byte[] data_head;
+	/** &role=... */
+	private final byte[] role_segment;
+	/** &connection_data=..., or empty */
+	private final byte[] tail;
+	private final int max_length;
+
+	TokenTemplate(OpenTokSDK sdk, String session_id, String role, String connection_data) throws OpenTokException {
+		if(!RoleConstants.SUBSCRIBER.equals(role) &&
+		    !RoleConstants.PUBLISHER.equals(role) &&
+		    !RoleConstants.MODERATOR.equals(role) &&
+		    !"".equals(role))
+		    throw new OpenTokValidationException(role + " is not a recognized role");
+		if (connection_data != null && connection_data.length() > 1000)
+		    throw new OpenTokValidationException("Connection data must be less than 1000 characters");
+
+		this.sdk = sdk;
+		this.session_id = session_id;
+		this.role = role;
+		this.connection_data = connection_data;
+		try {
+			this.head = ("partner_id=" + sdk.api_key + "&sig=").getBytes("UTF-8");
+			this.data_head = ("session_id=" + session_id + "&create_time=").getBytes("UTF-8");
+			this.role_segment = ("&role=" + role).getBytes("UTF-8");
+			this.tail = connection_data == null ? new byte[0]
+					: ("&connection_data=" + URLEncoder.encode(connection_data, "UTF-8")).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+		this.max_length = head.length + HmacSigner.HEX_LENGTH + 1 + data_head.length + MAX_LONG_DIGITS
+				+ NONCE.length + MAX_LONG_DIGITS + role_segment.length
+				+ EXPIRE_TIME.length + MAX_LONG_DIGITS + tail.length;
+	}
+
+	/**
+	 * Generates a token with the default expire time of 24h.
+	 */
+	public String generate_token() throws OpenTokException {
+		return generate_token(null);
+	}
+
+	/**
+	 * Generates a token that expires at expire_time (seconds since the epoch), or after the
+	 * default 24h when expire_time is null.
+	 */
+	public String generate_token(Long expire_time) throws OpenTokException {
+		long start = System.nanoTime();
+		try {
+			String token = sign(expire_time);
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.SUCCESS, System.nanoTime() - start);
+			return token;
+		} catch (OpenTokException e) {
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a token into dst at its position, which is advanced past it, and returns its length.
+	 * @throws BufferOverflowException if dst has less than token_length(expire_time) bytes
+	 * remaining, in which case nothing is written
+	 */
+	public int generate_token(Long expire_time, ByteBuffer dst) throws OpenTokException {
+		long start = System.nanoTime();
+		try {
+			int length = encode(expire_time);
+			if (dst.remaining() < length) {
+				throw new BufferOverflowException();
+			}
+			dst.put(buffers.get()[1], 0, length);
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.SUCCESS, System.nanoTime() - start);
+			return length;
+		} catch (OpenTokException e) {
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends a token to dst, e.g. a StringBuilder, and returns its length.
+	 */
+	public int generate_token(Long expire_time, Appendable dst) throws OpenTokException {
+		long start = System.nanoTime();
+		try {
+			int length = encode(expire_time);
+			byte[] token = buffers.get()[1];
+			try {
+				for (int i = 0; i < length; i++) {
+					dst.append((char) token[i]);
+				}
+			} catch (IOException e) {
+				throw new OpenTokException(e.getMessage());
+			}
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.SUCCESS, System.nanoTime() - start);
+			return length;
+		} catch (OpenTokException e) {
+			sdk.metrics.record(Operation.GENERATE_TOKEN, Outcome.of(e), System.nanoTime() - start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Exact length in bytes (and chars) of a token generated now with expire_time. Only the
+	 * number of digits of expire_time matters, as the nonce has a fixed width and create_time
+	 * has 10 digits until 2286.
+	 */
+	public int token_length(Long expire_time) {
+		int length = head.length + HmacSigner.HEX_LENGTH + 1 + data_head.length
+				+ digits(System.currentTimeMillis() / 1000) + NONCE.length + NONCE_DIGITS + role_segment.length
+				+ tail.length;
+		if (expire_time != null) {
+			length += EXPIRE_TIME.length + digits(expire_time);
+		}
+		return TOKEN_PREFIX.length + Base64.encodedLength(length);
+	}
+
+	String sign(Long expire_time) throws OpenTokException {
+		int length = encode(expire_time);
+		try {
+			return new String(buffers.get()[1], 0, length, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+	}
+
+	/** Generates a token into the per-thread token buffer and returns its length. */
+	private int encode(Long expire_time) throws OpenTokException {
+		long now = System.currentTimeMillis() / 1000;
+		if (expire_time != null) {
+			if (expire_time < now - 1)
+				throw new OpenTokValidationException("Expire time must be in the future");
+			if (expire_time > now + 2592000)
+				throw new OpenTokValidationException("Expire time must be in the next 30 days");
+		}
+		HmacSigner signer = sdk.signer();
+
+		byte[][] b = buffers.get();
+		byte[] inner = b[0];
+		if (inner.length < max_length) {
+			inner = b[0] = new byte[max_length];
+		}
+
+		// partner_id=...&sig=<hex>:<data>, with the signature filled in once data is written
+		int sig = head.length;
+		int data = sig + HmacSigner.HEX_LENGTH + 1;
+		System.arraycopy(head, 0, inner, 0, head.length);
+		inner[data - 1] = ':';
+		int pos = put(inner, data, data_head);
+		pos = put_long(inner, pos, now);
+		pos = put(inner, pos, NONCE);
+		pos = put_long(inner, pos, ThreadLocalRandom.current().nextLong(NONCE_MIN, Integer.MAX_VALUE + 1L));
+		pos = put(inner, pos, role_segment);
+		if (expire_time != null) {
+			pos = put(inner, pos, EXPIRE_TIME);
+			pos = put_long(inner, pos, expire_time);
+		}
+		pos = put(inner, pos, tail);
+		try {
+			signer.signHex(inner, data, pos - data, inner, sig);
+		} catch (SignatureException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+
+		int length = TOKEN_PREFIX.length + Base64.encodedLength(pos);
+		byte[] token = b[1];
+		if (token.length < length) {
+			token = b[1] = new byte[length];
+		}
+		System.arraycopy(TOKEN_PREFIX, 0, token, 0, TOKEN_PREFIX.length);
+		Base64.encode(inner, 0, pos, token, TOKEN_PREFIX.length);
+		return length;
+	}
+
+	boolean matches(String role, String connection_data) {
+		return this.role.equals(role)
+				&& (this.connection_data == null ? connection_data == null : this.connection_data.equals(connection_data));
+	}
+
+	public String getSessionId() {
+		return session_id;
+	}
+
+	public String getRole() {
+		return role;
+	}
+
+	public String getConnectionData() {
+		return connection_data;
+	}
+
+	private static int put(byte[] dst, int pos, byte[] src) {
+		System.arraycopy(src, 0, dst, pos, src.length);
+		return pos + src.length;
+	}
+
+	/** Writes value as ASCII decimal, like Long.toString, and returns the position after it. */
+	private static int put_long(byte[] dst, int pos, long value) {
+		if (value == Long.MIN_VALUE) {
+			return put(dst, pos, ascii(Long.toString(value)));
+		}
+		if (value < 0) {
+			dst[pos++] = '-';
+			value = -value;
+		}
+		int end = pos + digits(value);
+		for (int i = end - 1; i >= pos; i--) {
+			dst[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+
+	/** Length of Long.toString(value). */
+	private static int digits(long value) {
+		if (value == Long.MIN_VALUE) {
+			return MAX_LONG_DIGITS;
+		}
+		int digits = value < 0 ? 2 : 1;
+		for (long v = Math.abs(value) / 10; v != 0; v /= 10) {
+			digits++;
+		}
+		return digits;
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,174 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.security.SignatureException;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.Base64;
+import com.opentok.util.HmacSigner;
+
+/**
+ * Decodes and authenticates T1== tokens, as produced by generate_token, without calling the API.
+ *
+ * A token is accepted when it was issued for this verifier's api_key and its signature matches
+ * the api_secret. The signature is compared in constant time. Decoding uses a per-thread buffer;
+ * is_valid allocates nothing and verify allocates only the returned claims. Tokens longer than
+ * generate_token can produce are rejected as malformed before decoding, which bounds that buffer.
+ * Expiry is left to the caller, see TokenClaims.isExpired. Instances are safe to share between
+ * threads.
+ */
+public class TokenVerifier {
+
+	private static final String TOKEN_PREFIX = "T1==";
+	private static final byte[] PARTNER_ID = "partner_id=".getBytes();
+	private static final byte[] SIG = "&sig=".getBytes();
+
+	/** Allowance for the session_id; real ones are under 200 characters. */
+	private static final int MAX_SESSION_ID_LENGTH = 1024;
+	/**
+	 * Longest decoded token: 1000 chars of connection_data at up to 9 bytes each once URL-encoded
+	 * ("%E2%82%AC"), the session_id, and 256 bytes for partner_id, sig, role, times, nonce and the
+	 * parameter names.
+	 */
+	private static final int MAX_INNER_LENGTH = 9 * 1000 + MAX_SESSION_ID_LENGTH + 256;
+	private static final int MAX_TOKEN_LENGTH = TOKEN_PREFIX.length() + (MAX_INNER_LENGTH + 2) / 3 * 4;
+
+	private static final ThreadLocal<Decoded> decoded = new ThreadLocal<Decoded>() {
+		@Override
+		protected Decoded initialValue() {
+			return new Decoded();
+		}
+	};
+
+	private static final class Decoded {
+		byte[] inner = new byte[512];
+		int length;
+	}
+
+	private final int api_key;
+	private final HmacSigner signer;
+
+	public TokenVerifier(int api_key, String api_secret) throws OpenTokException {
+		this.api_key = api_key;
+		try {
+			this.signer = new HmacSigner(api_secret.trim());
+		} catch (SignatureException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+	}
+
+	TokenVerifier(int api_key, HmacSigner signer) {
+		this.api_key = api_key;
+		this.signer = signer;
+	}
+
+	/**
+	 * Returns the claims of token, or throws an OpenTokException if it is malformed, was issued
+	 * for another partner or its signature does not match.
+	 */
+	public TokenClaims verify(String token) throws OpenTokException {
+		Decoded d = decoded.get();
+		int data = check(token, d);
+		if (data < 0) {
+			throw new OpenTokException(message(data));
+		}
+		byte[] copy = new byte[d.length - data];
+		System.arraycopy(d.inner, data, copy, 0, copy.length);
+		return new TokenClaims(api_key, copy);
+	}
+
+	/**
+	 * Returns whether token is well formed, was issued for this partner and has a valid signature.
+	 */
+	public boolean is_valid(String token) {
+		try {
+			return check(token, decoded.get()) >= 0;
+		} catch (OpenTokException e) {
+			return false;
+		}
+	}
+
+	private static final int MALFORMED = -1;
+	private static final int OTHER_PARTNER = -2;
+	private static final int BAD_SIGNATURE = -3;
+
+	private static String message(int error) {
+		switch (error) {
+		case OTHER_PARTNER:
+			return "Token does not belong to the same partnerId";
+		case BAD_SIGNATURE:
+			return "Token signature is invalid";
+		default:
+			return "Token is malformed";
+		}
+	}
+
+	/**
+	 * Decodes token into d and checks it. Returns the offset of the signed data
+	 * in the buffer, or one of the negative error codes.
+	 */
+	private int check(String token, Decoded d) throws OpenTokException {
+		if (token == null || token.length() > MAX_TOKEN_LENGTH || !token.startsWith(TOKEN_PREFIX)) {
+			return MALFORMED;
+		}
+		int encoded = token.length() - TOKEN_PREFIX.length();
+		int max = Base64.decodedLength(encoded);
+		if (d.inner.length < max) {
+			d.inner = new byte[max];
+		}
+		byte[] inner = d.inner;
+		int length = d.length = Base64.decode(token, TOKEN_PREFIX.length(), encoded, inner, 0);
+		if (length < 0 || !starts_with(inner, 0, length, PARTNER_ID)) {
+			return MALFORMED;
+		}
+
+		// partner_id=<digits>&sig=<hex>:<data>
+		int pos = PARTNER_ID.length;
+		long partner_id = 0;
+		int digits = 0;
+		while (pos < length && inner[pos] >= '0' && inner[pos] <= '9' && digits < 11) {
+			partner_id = partner_id * 10 + (inner[pos++] - '0');
+			digits++;
+		}
+		if (digits == 0 || !starts_with(inner, pos, length, SIG)) {
+			return MALFORMED;
+		}
+		int sig = pos + SIG.length;
+		int colon = sig;
+		while (colon < length && inner[colon] != ':') {
+			colon++;
+		}
+		if (colon == length) {
+			return MALFORMED;
+		}
+		if (partner_id != api_key) {
+			return OTHER_PARTNER;
+		}
+		try {
+			if (!signer.verifyHex(inner, colon + 1, length - colon - 1, inner, sig, colon - sig)) {
+				return BAD_SIGNATURE;
+			}
+		} catch (SignatureException e) {
+			throw new OpenTokException(e.getMessage());
+		}
+		return colon + 1;
+	}
+
+	private static boolean starts_with(byte[] b, int offset, int length, byte[] prefix) {
+		if (length - offset < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (b[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,170 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*/
+package com.opentok.api.constants;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.opentok.util.FormEncoder;
+
+/**
+ * Immutable alternative to SessionProperties, built once with SessionProfile.builder() and then
+ * passed to OpenTokSDK.create_session(location, profile) as often as needed.
+ *
+ * The properties are validated when the profile is built, and their form-encoded request body
+ * is computed once and cached, so creating a session from a profile does no per-call map or
+ * encoding work for the properties. Profiles with the same properties are equal, which makes
+ * them usable as keys when pooling or caching sessions. Instances are safe to share between threads.
+ */
+public final class SessionProfile {
+
+	/** A profile without any properties. */
+	public static final SessionProfile DEFAULT = builder().build();
+
+	private final Map<String, String> params;
+	private final byte[] encoded;
+
+	private SessionProfile(Map<String, String> params) {
+		this.params = Collections.unmodifiableMap(params);
+		this.encoded = FormEncoder.encode(params);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Returns a profile with the same properties as a SessionProperties, or DEFAULT for null.
+	 */
+	public static SessionProfile from(SessionProperties properties) {
+		if (properties == null) {
+			return DEFAULT;
+		}
+		Builder b = builder();
+		b.echoSuppression_enabled = properties.echoSuppression_enabled;
+		b.multiplexer_numOutputStreams = properties.multiplexer_numOutputStreams;
+		b.multiplexer_switchType = properties.multiplexer_switchType;
+		b.multiplexer_switchTimeout = properties.multiplexer_switchTimeout;
+		b.multiplexer_transitionDuration = properties.multiplexer_transitionDuration;
+		b.p2p_preference = properties.p2p_preference;
+		return b.build();
+	}
+
+	/** The request params for these properties, keyed like SessionProperties.to_map(). */
+	public Map<String, String> to_map() {
+		return params;
+	}
+
+	/** Length in bytes of the form-encoded properties. */
+	public int encoded_length() {
+		return encoded.length;
+	}
+
+	/**
+	 * Copies the form-encoded properties ("key=value&" per property) into dst at pos and returns
+	 * the position after them.
+	 */
+	public int write_encoded(byte[] dst, int pos) {
+		System.arraycopy(encoded, 0, dst, pos, encoded.length);
+		return pos + encoded.length;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof SessionProfile && params.equals(((SessionProfile) o).params);
+	}
+
+	@Override
+	public int hashCode() {
+		return params.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return params.toString();
+	}
+
+	public static final class Builder {
+		private Boolean echoSuppression_enabled;
+		private Integer multiplexer_numOutputStreams;
+		private Integer multiplexer_switchType;
+		private Integer multiplexer_switchTimeout;
+		private Integer multiplexer_transitionDuration;
+		private String p2p_preference;
+
+		private Builder() {
+		}
+
+		public Builder echoSuppression_enabled(boolean enabled) {
+			this.echoSuppression_enabled = enabled;
+			return this;
+		}
+
+		public Builder multiplexer_numOutputStreams(int streams) {
+			this.multiplexer_numOutputStreams = streams;
+			return this;
+		}
+
+		public Builder multiplexer_switchType(int type) {
+			this.multiplexer_switchType = type;
+			return this;
+		}
+
+		public Builder multiplexer_switchTimeout(int timeout) {
+			this.multiplexer_switchTimeout = timeout;
+			return this;
+		}
+
+		public Builder multiplexer_transitionDuration(int duration) {
+			this.multiplexer_transitionDuration = duration;
+			return this;
+		}
+
+		/** "enabled" or "disabled". */
+		public Builder p2p_preference(String preference) {
+			this.p2p_preference = preference;
+			return this;
+		}
+
+		/**
+		 * Validates the properties and returns the profile.
+		 * @throws IllegalArgumentException if a property has an invalid value
+		 */
+		public SessionProfile build() {
+			non_negative("multiplexer.numOutputStreams", multiplexer_numOutputStreams);
+			non_negative("multiplexer.switchType", multiplexer_switchType);
+			non_negative("multiplexer.switchTimeout", multiplexer_switchTimeout);
+			non_negative("multiplexer.transitionDuration", multiplexer_transitionDuration);
+			if (p2p_preference != null && !"enabled".equals(p2p_preference) && !"disabled".equals(p2p_preference)) {
+				throw new IllegalArgumentException("p2p.preference must be enabled or disabled, not " + p2p_preference);
+			}
+
+			// Sorted so that equal profiles always encode to the same body
+			Map<String, String> m = new TreeMap<String, String>();
+			if (echoSuppression_enabled != null)
+				m.put("echoSuppression.enabled", echoSuppression_enabled.toString());
+			if (multiplexer_numOutputStreams != null)
+				m.put("multiplexer.numOutputStreams", multiplexer_numOutputStreams.toString());
+			if (multiplexer_switchType != null)
+				m.put("multiplexer.switchType", multiplexer_switchType.toString());
+			if (multiplexer_switchTimeout != null)
+				m.put("multiplexer.switchTimeout", multiplexer_switchTimeout.toString());
+			if (multiplexer_transitionDuration != null)
+				m.put("multiplexer.transitionDuration", multiplexer_transitionDuration.toString());
+			if (p2p_preference != null)
+				m.put("p2p.preference", p2p_preference);
+			return new SessionProfile(m);
+		}
+
+		private static void non_negative(String name, Integer value) {
+			if (value != null && value < 0) {
+				throw new IllegalArgumentException(name + " must not be negative");
+			}
+		}
+	}
+}
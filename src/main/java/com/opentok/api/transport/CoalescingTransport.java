@@ -0,0 +1,173 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+
+/**
+ * TokBoxTransport decorator that merges identical concurrent requests into one.
+ *
+ * Two requests are identical when they have the same url, params and headers; param and header
+ * order does not matter, except between requests created with pre-encoded bodies, which are
+ * compared byte for byte. While a request is in flight, identical requests wait for it and get
+ * its response, or its exception, instead of being sent themselves. Nothing is cached: once the
+ * response arrives, the next identical request is sent again.
+ *
+ * Only requests to the given endpoints (url paths such as "/session/create") are coalesced. Note
+ * that for /session/create this means concurrent callers with the same location and properties
+ * are handed the same session.
+ *
+ * A waiting request is still bounded by its own deadline, if it has one, and fails with
+ * OpenTokTimeoutException when the shared call outlasts it.
+ *
+ *     sdk.setTransport(new CoalescingTransport(new PooledTokBoxTransport(), "/session/create"));
+ */
+public class CoalescingTransport implements TokBoxTransport {
+
+	private final TokBoxTransport delegate;
+	private final Set<String> endpoints;
+	private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<String, CompletableFuture<String>>();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @param endpoints url paths to coalesce; requests to any other path are passed through
+	 */
+	public CoalescingTransport(TokBoxTransport delegate, String... endpoints) {
+		if (delegate == null) {
+			throw new NullPointerException();
+		}
+		if (endpoints.length == 0) {
+			throw new IllegalArgumentException("At least one endpoint must be given");
+		}
+		this.delegate = delegate;
+		this.endpoints = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(endpoints)));
+	}
+
+	public String request(TokBoxRequest request) throws OpenTokException {
+		requests.incrementAndGet();
+		if (!endpoints.contains(path(request.getUrl()))) {
+			return delegate.request(request);
+		}
+		String key = key(request);
+		CompletableFuture<String> call = new CompletableFuture<String>();
+		CompletableFuture<String> existing = inFlight.putIfAbsent(key, call);
+		if (existing != null) {
+			coalesced.incrementAndGet();
+			return await(existing, request);
+		}
+		try {
+			String response = delegate.request(request);
+			call.complete(response);
+			return response;
+		} catch (OpenTokException e) {
+			call.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			call.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, call);
+		}
+	}
+
+	private static String await(CompletableFuture<String> call, TokBoxRequest request) throws OpenTokException {
+		try {
+			if (request.hasDeadline()) {
+				return call.get(request.getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			return call.get();
+		} catch (TimeoutException e) {
+			// Our request was never sent, the shared call is still running
+			throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out waiting for an identical request", true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokRequestException("Interrupted while waiting for " + request.getUrl());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OpenTokException) {
+				throw (OpenTokException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	static String path(String url) {
+		try {
+			return new URL(url).getPath();
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+	private static String key(TokBoxRequest request) {
+		StringBuilder key = new StringBuilder(request.getUrl());
+		key.append('\n');
+		if (request.getParams() != null) {
+			append(key, request.getParams());
+		} else {
+			byte[] body = request.getBody();
+			for (byte b : body) {
+				key.append((char) (b & 0xff));
+			}
+		}
+		append(key.append('\n'), request.getHeaders());
+		return key.toString();
+	}
+
+	private static void append(StringBuilder key, Map<String, String> map) {
+		if (map == null) {
+			return;
+		}
+		// Null values are not sent, see the transports' form encoding
+		for (Map.Entry<String, String> e : new TreeMap<String, String>(map).entrySet()) {
+			if (e.getValue() != null) {
+				key.append(e.getKey().length()).append(':').append(e.getKey()).append('=');
+				key.append(e.getValue().length()).append(':').append(e.getValue());
+			}
+		}
+	}
+
+	/** Requests passed to this transport, coalesced or not. */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/** Requests answered with the response of an identical request that was already in flight. */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public Set<String> getEndpoints() {
+		return endpoints;
+	}
+}
@@ -0,0 +1,269 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.util.AsyncExecutors;
+
+/**
+ * TokBoxTransport decorator that sends a second copy of a request when the first one is slow.
+ *
+ * If the first attempt has not answered within the hedge delay, the same request is sent again
+ * and whichever attempt answers first is returned; the other one is cancelled. The delay is either
+ * fixed, or adaptive: the given percentile of the latencies of recent successful requests, never
+ * lower than the fixed delay. Hedges are limited by a budget: every request earns budgetRatio of a
+ * hedge and hedges are only sent while at least one whole hedge has been earned, so the extra load
+ * on the API stays below budgetRatio of the request rate.
+ *
+ * A hedged create_session can create one more session than it returns. The unused session is
+ * never handed out and simply expires on the server.
+ *
+ *     sdk.setTransport(new HedgingTransport(new PooledTokBoxTransport(), 200, 0.95, 0.05));
+ */
+public class HedgingTransport implements TokBoxTransport {
+
+	public static final double DEFAULT_BUDGET_RATIO = 0.1;
+
+	/** Latency samples kept for the adaptive delay. */
+	static final int WINDOW = 256;
+	/** Samples needed before the adaptive delay replaces the fixed one. */
+	static final int MIN_SAMPLES = 20;
+	/** Requests between recomputations of the adaptive delay. */
+	private static final int RECOMPUTE_INTERVAL = 32;
+	/** Most hedges that can be saved up while the API is fast, in budget units. */
+	private static final long MAX_BUDGET = 10 * 1000;
+
+	private final TokBoxTransport delegate;
+	private final long delayNanos;
+	private final double percentile;
+	private final long budgetPerRequest;
+	private final Executor executor;
+
+	private final AtomicLong budget = new AtomicLong(1000);
+	private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+	private final AtomicInteger sampleCount = new AtomicInteger();
+	private volatile long adaptiveDelayNanos = -1;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedgesSent = new AtomicLong();
+	private final AtomicLong hedgesWon = new AtomicLong();
+	private final AtomicLong hedgesDenied = new AtomicLong();
+
+	/**
+	 * Hedges after a fixed delay, within the default budget.
+	 */
+	public HedgingTransport(TokBoxTransport delegate, long delayMillis) {
+		this(delegate, delayMillis, 0, DEFAULT_BUDGET_RATIO);
+	}
+
+	/**
+	 * @param delayMillis  hedge delay, and the lower bound of the adaptive delay
+	 * @param percentile   percentile of recent latency to hedge at, e.g. 0.95; 0 for a fixed delay
+	 * @param budgetRatio  most hedges per request, e.g. 0.05 for at most 5% extra requests
+	 */
+	public HedgingTransport(TokBoxTransport delegate, long delayMillis, double percentile, double budgetRatio) {
+		this(delegate, delayMillis, percentile, budgetRatio, AsyncExecutors.defaultExecutor());
+	}
+
+	public HedgingTransport(TokBoxTransport delegate, long delayMillis, double percentile, double budgetRatio, Executor executor) {
+		if (delegate == null || executor == null) {
+			throw new NullPointerException();
+		}
+		if (delayMillis < 0) {
+			throw new IllegalArgumentException("delayMillis must not be negative");
+		}
+		if (percentile < 0 || percentile >= 1) {
+			throw new IllegalArgumentException("percentile must be in [0, 1)");
+		}
+		if (budgetRatio < 0 || budgetRatio > 1) {
+			throw new IllegalArgumentException("budgetRatio must be in [0, 1]");
+		}
+		this.delegate = delegate;
+		this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		this.percentile = percentile;
+		this.budgetPerRequest = Math.round(budgetRatio * 1000);
+		this.executor = executor;
+	}
+
+	public String request(final TokBoxRequest request) throws OpenTokException {
+		long n = requests.incrementAndGet();
+		earn_budget();
+		if (percentile > 0 && n % RECOMPUTE_INTERVAL == 0) {
+			recompute_delay();
+		}
+		long start = System.nanoTime();
+		Callable<String> attempt = new Callable<String>() {
+			public String call() throws Exception {
+				return delegate.request(request);
+			}
+		};
+		CompletionService<String> attempts = new ExecutorCompletionService<String>(executor);
+		Future<String> primary;
+		try {
+			primary = attempts.submit(attempt);
+		} catch (RejectedExecutionException e) {
+			// No spare thread to race on, send the request unhedged
+			return delegate.request(request);
+		}
+		Future<String> hedge = null;
+		try {
+			Future<String> done = attempts.poll(hedge_delay_nanos(), TimeUnit.NANOSECONDS);
+			if (done == null) {
+				if (take_budget()) {
+					try {
+						hedge = attempts.submit(attempt);
+						hedgesSent.incrementAndGet();
+					} catch (RejectedExecutionException e) {
+						give_back_budget();
+					}
+				} else {
+					hedgesDenied.incrementAndGet();
+				}
+				done = attempts.take();
+			}
+			OpenTokException failure;
+			try {
+				String response = result(done);
+				record_latency(System.nanoTime() - start);
+				if (done == hedge) {
+					hedgesWon.incrementAndGet();
+				}
+				return response;
+			} catch (OpenTokException e) {
+				if (hedge == null) {
+					throw e;
+				}
+				failure = e;
+			}
+			// The first attempt to answer failed, the other one may still succeed
+			done = attempts.take();
+			try {
+				String response = result(done);
+				record_latency(System.nanoTime() - start);
+				if (done == hedge) {
+					hedgesWon.incrementAndGet();
+				}
+				return response;
+			} catch (OpenTokException e) {
+				throw failure;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokRequestException("Interrupted while waiting for " + request.getUrl());
+		} finally {
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	private static String result(Future<String> future) throws OpenTokException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof OpenTokException) {
+				throw (OpenTokException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new OpenTokRequestException(String.valueOf(cause));
+		}
+	}
+
+	long hedge_delay_nanos() {
+		long adaptive = adaptiveDelayNanos;
+		return adaptive > delayNanos ? adaptive : delayNanos;
+	}
+
+	private void earn_budget() {
+		if (budgetPerRequest == 0) {
+			return;
+		}
+		long b;
+		while ((b = budget.get()) < MAX_BUDGET && !budget.compareAndSet(b, Math.min(MAX_BUDGET, b + budgetPerRequest))) {
+		}
+	}
+
+	private boolean take_budget() {
+		long b;
+		while ((b = budget.get()) >= 1000) {
+			if (budget.compareAndSet(b, b - 1000)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void give_back_budget() {
+		budget.addAndGet(1000);
+	}
+
+	private void record_latency(long nanos) {
+		if (percentile > 0) {
+			samples.set((sampleCount.getAndIncrement() & 0x7fffffff) % WINDOW, nanos);
+		}
+	}
+
+	private void recompute_delay() {
+		int n = Math.min(sampleCount.get() & 0x7fffffff, WINDOW);
+		if (n < MIN_SAMPLES) {
+			return;
+		}
+		long[] sorted = new long[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = samples.get(i);
+		}
+		Arrays.sort(sorted);
+		adaptiveDelayNanos = sorted[Math.min(n - 1, (int) Math.ceil(percentile * n) - 1)];
+	}
+
+	/** Requests sent through this transport, not counting hedges. */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/** Second attempts sent because the first one was slower than the hedge delay. */
+	public long getHedgesSent() {
+		return hedgesSent.get();
+	}
+
+	/** Hedges that answered before the first attempt. */
+	public long getHedgesWon() {
+		return hedgesWon.get();
+	}
+
+	/** Slow requests that were not hedged because the budget was used up. */
+	public long getHedgesDenied() {
+		return hedgesDenied.get();
+	}
+
+	/** Current hedge delay in milliseconds, the adaptive one when enabled and warmed up. */
+	public long getHedgeDelayMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(hedge_delay_nanos());
+	}
+}
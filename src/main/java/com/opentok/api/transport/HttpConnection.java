@@ -0,0 +1,355 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A persistent HTTP/1.1 client connection to one route, used by PooledTokBoxTransport.
+ * Not thread safe; the pool hands a connection to one request at a time.
+ */
+class HttpConnection {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	/** Largest response body accepted, before and after decompression; API responses are small XML documents. */
+	static final int MAX_RESPONSE_BYTES = 4 * 1024 * 1024;
+
+	final String route;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private boolean reusable = true;
+	private boolean responseStarted;
+	private int soTimeout;
+	long lastUsed;
+
+	/** The deadline passed before anything was written, so the connection can still be reused. */
+	static final class DeadlineExpiredException extends SocketTimeoutException {
+		private static final long serialVersionUID = 2930480612347718295L;
+
+		DeadlineExpiredException() {
+			super("Deadline passed before sending");
+		}
+	}
+
+	/** Response of a single exchange. */
+	static class Response {
+		final int status;
+		final byte[] body;
+
+		Response(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private HttpConnection(String route, Socket socket) throws IOException {
+		this.route = route;
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+	}
+
+	/**
+	 * @param timeoutMillis  for connecting and the TLS handshake, 0 for none
+	 */
+	static HttpConnection open(String route, String scheme, String host, int port, int timeoutMillis) throws IOException {
+		Socket socket = new Socket();
+		socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+		socket.setTcpNoDelay(true);
+		if ("https".equals(scheme)) {
+			socket.setSoTimeout(timeoutMillis);
+			SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+			SSLParameters params = ssl.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			ssl.setSSLParameters(params);
+			ssl.startHandshake();
+			ssl.setSoTimeout(0);
+			socket = ssl;
+		}
+		return new HttpConnection(route, socket);
+	}
+
+	/**
+	 * Bounds the blocking reads that follow by the time left before the request's deadline.
+	 * @throws SocketTimeoutException if the deadline has passed
+	 */
+	private void arm(TokBoxRequest request) throws IOException {
+		if (request.isExpired()) {
+			throw new SocketTimeoutException("Deadline passed");
+		}
+		int timeout = request.timeoutMillis();
+		if (timeout != soTimeout) {
+			socket.setSoTimeout(timeout);
+			soTimeout = timeout;
+		}
+	}
+
+	boolean isReusable() {
+		return reusable && !socket.isClosed();
+	}
+
+	/**
+	 * True once the last post() received a status line, i.e. the server has seen the request.
+	 */
+	boolean responseStarted() {
+		return responseStarted;
+	}
+
+	void close() {
+		reusable = false;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * Writes one POST request and reads its response. The connection stays open afterwards unless
+	 * the server asked to close it or the body was delimited by end of stream.
+	 */
+	Response post(String hostHeader, String path, TokBoxRequest request, byte[] body) throws IOException {
+		RequestEventListener listener = request.getListener();
+		Map<String, String> headers = request.getHeaders();
+		responseStarted = false;
+		// A blocking write is not bounded by the socket timeout, the deadline is checked before it
+		if (request.isExpired()) {
+			throw new DeadlineExpiredException();
+		}
+		arm(request);
+		if (listener != null) {
+			listener.requestWriteStart(request, System.nanoTime());
+		}
+		StringBuilder head = new StringBuilder(256);
+		head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+		head.append("Host: ").append(hostHeader).append("\r\n");
+		head.append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n");
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		head.append("Accept-Charset: utf-8\r\n");
+		head.append("Accept: text/html, application/xhtml+xml,application/xml\r\n");
+		head.append("Accept-Encoding: gzip\r\n");
+		head.append("Connection: keep-alive\r\n");
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		out.write(body);
+		out.flush();
+		arm(request);
+		if (listener != null) {
+			listener.requestWriteEnd(request, System.nanoTime());
+			// Wait for the first byte without consuming it
+			in.mark(1);
+			int first = in.read();
+			in.reset();
+			if (first != -1) {
+				listener.responseStart(request, System.nanoTime());
+			}
+		}
+
+		String statusLine = readLine();
+		if (statusLine == null) {
+			throw new EOFException("Connection closed before response");
+		}
+		responseStarted = true;
+		int status = parseStatus(statusLine);
+		boolean http10 = statusLine.startsWith("HTTP/1.0");
+		boolean keepAlive = !http10;
+		long contentLength = -1;
+		boolean chunked = false;
+		boolean gzip = false;
+
+		String line;
+		while ((line = readLine()) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			if ("Content-Length".equalsIgnoreCase(name)) {
+				try {
+					contentLength = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed Content-Length: " + value);
+				}
+				if (contentLength < 0) {
+					throw new IOException("Malformed Content-Length: " + value);
+				}
+				if (contentLength > MAX_RESPONSE_BYTES) {
+					throw new IOException("Response of " + contentLength + " bytes exceeds " + MAX_RESPONSE_BYTES);
+				}
+			} else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+				chunked = value.toLowerCase().contains("chunked");
+			} else if ("Content-Encoding".equalsIgnoreCase(name)) {
+				gzip = "gzip".equalsIgnoreCase(value);
+			} else if ("Connection".equalsIgnoreCase(name)) {
+				if ("close".equalsIgnoreCase(value)) {
+					keepAlive = false;
+				} else if ("keep-alive".equalsIgnoreCase(value)) {
+					keepAlive = true;
+				}
+			}
+		}
+		if (line == null) {
+			throw new EOFException("Connection closed while reading headers");
+		}
+		if (listener != null) {
+			listener.responseHeadersEnd(request, System.nanoTime(), status);
+		}
+		arm(request);
+
+		byte[] responseBody;
+		if (status == 204 || status == 304 || (status >= 100 && status < 200)) {
+			responseBody = new byte[0];
+		} else if (chunked) {
+			responseBody = readChunked();
+		} else if (contentLength >= 0) {
+			responseBody = readFixed((int) contentLength);
+		} else {
+			responseBody = readToEnd();
+			keepAlive = false;
+		}
+		if (!keepAlive) {
+			close();
+		}
+		if (gzip && responseBody.length > 0) {
+			responseBody = gunzip(responseBody);
+		}
+		if (listener != null) {
+			listener.responseBodyEnd(request, System.nanoTime(), responseBody.length);
+		}
+		return new Response(status, responseBody);
+	}
+
+	private static int parseStatus(String statusLine) throws IOException {
+		int sp = statusLine.indexOf(' ');
+		if (!statusLine.startsWith("HTTP/") || sp < 0 || statusLine.length() < sp + 4) {
+			throw new IOException("Malformed status line: " + statusLine);
+		}
+		try {
+			return Integer.parseInt(statusLine.substring(sp + 1, sp + 4));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed status line: " + statusLine);
+		}
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder(64);
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				int len = sb.length();
+				if (len > 0 && sb.charAt(len - 1) == '\r') {
+					sb.setLength(len - 1);
+				}
+				return sb.toString();
+			}
+			sb.append((char) c);
+		}
+		return sb.length() == 0 ? null : sb.toString();
+	}
+
+	private byte[] readFixed(int length) throws IOException {
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(body, read, length - read);
+			if (n < 0) {
+				throw new EOFException("Connection closed after " + read + " of " + length + " bytes");
+			}
+			read += n;
+		}
+		return body;
+	}
+
+	private byte[] readChunked() throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String sizeLine = readLine();
+			if (sizeLine == null) {
+				throw new EOFException("Connection closed inside chunked body");
+			}
+			int semi = sizeLine.indexOf(';');
+			int size;
+			try {
+				size = Integer.parseInt((semi < 0 ? sizeLine : sizeLine.substring(0, semi)).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed chunk size: " + sizeLine);
+			}
+			if (size < 0) {
+				throw new IOException("Malformed chunk size: " + sizeLine);
+			}
+			if (size > MAX_RESPONSE_BYTES - body.size()) {
+				throw new IOException("Chunked response exceeds " + MAX_RESPONSE_BYTES + " bytes");
+			}
+			if (size == 0) {
+				// skip trailers
+				String trailer;
+				while ((trailer = readLine()) != null && trailer.length() > 0) {
+				}
+				return body.toByteArray();
+			}
+			body.write(readFixed(size));
+			if (in.read() != CRLF[0] || in.read() != CRLF[1]) {
+				throw new IOException("Malformed chunk terminator");
+			}
+		}
+	}
+
+	private byte[] readToEnd() throws IOException {
+		return readAll(in);
+	}
+
+	static byte[] gunzip(byte[] compressed) throws IOException {
+		GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(compressed), 1024);
+		try {
+			return readAll(gz);
+		} finally {
+			gz.close();
+		}
+	}
+
+	/**
+	 * Reads the stream to its end into a byte array.
+	 * @throws IOException if it holds more than MAX_RESPONSE_BYTES
+	 */
+	static byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = stream.read(buffer)) != -1) {
+			if (n > MAX_RESPONSE_BYTES - body.size()) {
+				throw new IOException("Response exceeds " + MAX_RESPONSE_BYTES + " bytes");
+			}
+			body.write(buffer, 0, n);
+		}
+		return body.toByteArray();
+	}
+}
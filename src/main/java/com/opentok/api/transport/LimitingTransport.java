@@ -0,0 +1,350 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRejectedException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+
+/**
+ * TokBoxTransport decorator that applies back-pressure to API requests before the API throttles
+ * them.
+ *
+ * Two limits apply in turn. First, a token bucket per api_key (taken from the X-TB-PARTNER-AUTH
+ * header) caps the request rate, with bursts of up to burst requests. Second, an adaptive limit
+ * caps the requests in flight across all api_keys, AIMD style: it grows by one for every limit
+ * successful requests, and shrinks when the API throttles (HTTP 429 or 503), a request fails
+ * without a response, or latency rises above latencyTolerance times the lowest recently seen.
+ * Failures on this side (rejected by an inner limiter, timed out before sending, interrupted)
+ * leave it as it is.
+ * The limit shrinks at most once per limit completed requests, so one burst of failures counts
+ * once.
+ *
+ * A caller waits for both limits for at most maxWaitMillis. If its turn would come later than
+ * that, it is rejected at once with an OpenTokRejectedException instead of joining the queue, so
+ * saturation shows up as fast, cheap rejections rather than a pile of blocked threads. A request
+ * with an earlier deadline waits only until then, and fails with a client-side
+ * OpenTokTimeoutException if its turn would come later.
+ *
+ *     sdk.setTransport(new LimitingTransport(new PooledTokBoxTransport(), 50, 20, 200));
+ */
+public class LimitingTransport implements TokBoxTransport {
+
+	public static final int DEFAULT_INITIAL_LIMIT = 10;
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+	/** Factor applied to the limit when the API throttles or fails. */
+	private static final double BACKOFF = 0.5;
+	/** Factor applied to the limit when latency rises above the tolerance. */
+	private static final double LATENCY_BACKOFF = 0.9;
+	/** Requests after which the lowest latency is measured afresh, to follow a changing baseline. */
+	private static final int BASELINE_WINDOW = 500;
+
+	private final TokBoxTransport delegate;
+	private final double requestsPerSecond;
+	private final int burst;
+	private final int maxLimit;
+	private final long maxWaitNanos;
+	private final double latencyTolerance;
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	// guarded by lock
+	private double limit;
+	private int inFlight;
+	private long completed;
+	private long noDecreaseBefore;
+	private long baselineNanos = Long.MAX_VALUE;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowCount;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong decreases = new AtomicLong();
+
+	/**
+	 * Token bucket in its GCRA form: instead of a token count it keeps the time at which the
+	 * bucket would be full again, so a permit is one addition and no refill timer is needed.
+	 */
+	private static final class Bucket {
+		final long nanosPerPermit;
+		final long capacityNanos;
+		// Theoretical arrival time: when the permits taken so far would have refilled
+		long tat;
+
+		Bucket(long nanosPerPermit, int burst, long now) {
+			this.nanosPerPermit = nanosPerPermit;
+			this.capacityNanos = nanosPerPermit * burst;
+			this.tat = now;
+		}
+
+		/**
+		 * Takes one permit and returns how long to wait before using it, or -1 without taking one
+		 * if that would be longer than maxWaitNanos.
+		 */
+		synchronized long reserve(long now, long maxWaitNanos) {
+			long t = Math.max(tat, now);
+			long wait = t + nanosPerPermit - capacityNanos - now;
+			if (wait > maxWaitNanos) {
+				return -1;
+			}
+			tat = t + nanosPerPermit;
+			return Math.max(0, wait);
+		}
+	}
+
+	/**
+	 * @param requestsPerSecond  most requests per second per api_key, 0 for no rate limit
+	 * @param burst              requests per api_key that can be sent at once after a quiet period
+	 * @param maxConcurrency     upper bound of the adaptive limit of requests in flight
+	 */
+	public LimitingTransport(TokBoxTransport delegate, double requestsPerSecond, int burst, int maxConcurrency) {
+		this(delegate, requestsPerSecond, burst, maxConcurrency, 1000, DEFAULT_LATENCY_TOLERANCE);
+	}
+
+	/**
+	 * @param maxWaitMillis     longest a request waits for the limits before it is rejected
+	 * @param latencyTolerance  latency, as a multiple of the lowest recent latency, above which the
+	 *                          limit shrinks; 0 to adapt to throttling and failures only
+	 */
+	public LimitingTransport(TokBoxTransport delegate, double requestsPerSecond, int burst, int maxConcurrency,
+			long maxWaitMillis, double latencyTolerance) {
+		if (delegate == null) {
+			throw new NullPointerException();
+		}
+		if (requestsPerSecond < 0) {
+			throw new IllegalArgumentException("requestsPerSecond must not be negative");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be at least 1");
+		}
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		}
+		if (maxWaitMillis < 0) {
+			throw new IllegalArgumentException("maxWaitMillis must not be negative");
+		}
+		if (latencyTolerance != 0 && latencyTolerance <= 1) {
+			throw new IllegalArgumentException("latencyTolerance must be 0 or greater than 1");
+		}
+		this.delegate = delegate;
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.maxLimit = maxConcurrency;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		this.latencyTolerance = latencyTolerance;
+		this.limit = Math.min(DEFAULT_INITIAL_LIMIT, maxConcurrency);
+	}
+
+	public String request(TokBoxRequest request) throws OpenTokException {
+		requests.incrementAndGet();
+		long deadline = System.nanoTime() + maxWaitNanos;
+		// The request's own deadline, when it is the tighter bound, times out instead of rejecting
+		boolean timesOut = request.hasDeadline() && request.getDeadline() - deadline < 0;
+		if (timesOut) {
+			deadline = request.getDeadline();
+		}
+		if (requestsPerSecond > 0) {
+			wait_for_rate(request, deadline, timesOut);
+		}
+		acquire(request, deadline, timesOut);
+		long start = System.nanoTime();
+		boolean overloaded = false;
+		boolean measured = true;
+		try {
+			return delegate.request(request);
+		} catch (OpenTokRequestException e) {
+			int status = e.getStatusCode();
+			if (status == -1 && client_side(e)) {
+				measured = false;
+			} else {
+				overloaded = status == 429 || status == 503 || status == -1;
+			}
+			if (status == 429 || status == 503) {
+				throttled.incrementAndGet();
+			}
+			throw e;
+		} finally {
+			release(measured ? System.nanoTime() - start : -1, overloaded);
+		}
+	}
+
+	/**
+	 * Whether a failure without a status happened on this side, so it says nothing about the API:
+	 * a rejection by an inner limiter, a timeout before sending or an interrupted caller.
+	 */
+	private static boolean client_side(OpenTokRequestException e) {
+		if (e instanceof OpenTokRejectedException) {
+			return true;
+		}
+		if (e instanceof OpenTokTimeoutException && ((OpenTokTimeoutException) e).isClientSide()) {
+			return true;
+		}
+		// Interrupted waits restore the flag before throwing
+		return Thread.currentThread().isInterrupted();
+	}
+
+	private void wait_for_rate(TokBoxRequest request, long deadline, boolean timesOut) throws OpenTokException {
+		String key = api_key(request.getHeaders());
+		Bucket bucket = buckets.get(key);
+		long now = System.nanoTime();
+		if (bucket == null) {
+			bucket = new Bucket((long) (1e9 / requestsPerSecond), burst, now);
+			Bucket existing = buckets.putIfAbsent(key, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		long wait = bucket.reserve(now, deadline - now);
+		if (wait < 0) {
+			if (timesOut) {
+				throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out waiting for the rate limit", true);
+			}
+			rejected.incrementAndGet();
+			throw new OpenTokRejectedException("Request to " + request.getUrl() + " rejected: rate limit of "
+					+ requestsPerSecond + "/s reached");
+		}
+		long until = now + wait;
+		while ((wait = until - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new OpenTokRequestException("Interrupted while waiting to send " + request.getUrl());
+			}
+		}
+	}
+
+	private void acquire(TokBoxRequest request, long deadline, boolean timesOut) throws OpenTokException {
+		lock.lock();
+		try {
+			while (inFlight >= (int) limit) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					if (timesOut) {
+						throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out with "
+								+ inFlight + " requests in flight", true);
+					}
+					rejected.incrementAndGet();
+					throw new OpenTokRejectedException("Request to " + request.getUrl() + " rejected: "
+							+ inFlight + " requests in flight");
+				}
+				available.awaitNanos(remaining);
+			}
+			inFlight++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokRequestException("Interrupted while waiting to send " + request.getUrl());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param latencyNanos  -1 for a client-side failure, which neither grows nor shrinks the limit
+	 */
+	private void release(long latencyNanos, boolean overloaded) {
+		lock.lock();
+		try {
+			inFlight--;
+			completed++;
+			if (overloaded) {
+				decrease(BACKOFF);
+			} else if (latencyNanos >= 0) {
+				if (latencyNanos < windowMinNanos) {
+					windowMinNanos = latencyNanos;
+				}
+				if (latencyNanos < baselineNanos) {
+					baselineNanos = latencyNanos;
+				}
+				if (++windowCount >= BASELINE_WINDOW) {
+					baselineNanos = windowMinNanos;
+					windowMinNanos = Long.MAX_VALUE;
+					windowCount = 0;
+				}
+				if (latencyTolerance > 0 && latencyNanos > latencyTolerance * baselineNanos) {
+					decrease(LATENCY_BACKOFF);
+				} else if (limit < maxLimit) {
+					limit = Math.min(maxLimit, limit + 1 / limit);
+				}
+			}
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Called with lock held
+	private void decrease(double factor) {
+		if (completed < noDecreaseBefore) {
+			return;
+		}
+		limit = Math.max(1, limit * factor);
+		// Requests already in flight saw the old limit, don't punish it again for them
+		noDecreaseBefore = completed + inFlight + (long) limit;
+		decreases.incrementAndGet();
+	}
+
+	private static String api_key(Map<String, String> headers) {
+		String auth = headers == null ? null : headers.get("X-TB-PARTNER-AUTH");
+		if (auth == null) {
+			return "";
+		}
+		int colon = auth.indexOf(':');
+		return colon < 0 ? auth : auth.substring(0, colon);
+	}
+
+	/** Current limit of requests in flight. */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Requests handed to this transport, including rejected ones. */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/** Requests rejected without being sent. */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/** Requests the API answered with HTTP 429 or 503. */
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	/** Times the concurrency limit was lowered. */
+	public long getDecreases() {
+		return decreases.get();
+	}
+}
@@ -0,0 +1,357 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import com.opentok.util.AsyncExecutors;
+
+/**
+ * TokBoxTransport that keeps HTTP/1.1 connections alive and reuses them across requests.
+ *
+ * Connections are pooled per route (scheme, host and port). At most maxConnectionsPerRoute
+ * requests are in flight to a route at once; further callers wait for a connection to be
+ * returned. Connections idle for longer than idleTimeoutMillis are closed, both when the pool is
+ * used and by a background reaper. A request that fails on a reused connection before any
+ * response byte arrives (the server dropped the idle socket) is retried once on a new connection.
+ * HTTP 429 and 5xx responses, and other error statuses without a body, are thrown as an
+ * OpenTokRequestException carrying the status.
+ *
+ * Connections go straight to the route: proxy settings are not used and redirects are not
+ * followed, which is why this transport is not the default. The limit per route applies to this
+ * instance, so a transport shared by many OpenTokSDKs shares its limit too.
+ *
+ *     sdk.setTransport(new PooledTokBoxTransport());
+ *
+ * Connecting, including the TLS handshake, times out after connectTimeoutMillis. If the request
+ * has a deadline, waiting for a connection, connecting and each wait for response bytes are also
+ * bounded by the time left, and running out of it throws an OpenTokTimeoutException. A timed out
+ * request is not retried.
+ */
+public class PooledTokBoxTransport implements TokBoxTransport, Closeable {
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private final int maxConnectionsPerRoute;
+	private final long idleTimeoutMillis;
+	private final int connectTimeoutMillis;
+	private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+	private final AtomicLong connectionsOpened = new AtomicLong();
+	private final AtomicLong connectionsReused = new AtomicLong();
+	private volatile ScheduledExecutorService reaper;
+	private volatile boolean closed;
+
+	private static final class Route {
+		final String key;
+		final String scheme;
+		final String host;
+		final int port;
+		final String hostHeader;
+		final Semaphore permits;
+		final ConcurrentLinkedDeque<HttpConnection> idle = new ConcurrentLinkedDeque<HttpConnection>();
+
+		Route(String key, String scheme, String host, int port, String hostHeader, int maxConnections) {
+			this.key = key;
+			this.scheme = scheme;
+			this.host = host;
+			this.port = port;
+			this.hostHeader = hostHeader;
+			this.permits = new Semaphore(maxConnections, true);
+		}
+	}
+
+	public PooledTokBoxTransport() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	public PooledTokBoxTransport(int maxConnectionsPerRoute, long idleTimeoutMillis) {
+		this(maxConnectionsPerRoute, idleTimeoutMillis, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param connectTimeoutMillis  longest wait to connect to a route, 0 for none
+	 */
+	public PooledTokBoxTransport(int maxConnectionsPerRoute, long idleTimeoutMillis, int connectTimeoutMillis) {
+		if (maxConnectionsPerRoute < 1) {
+			throw new IllegalArgumentException("maxConnectionsPerRoute must be at least 1");
+		}
+		if (idleTimeoutMillis < 1) {
+			throw new IllegalArgumentException("idleTimeoutMillis must be positive");
+		}
+		if (connectTimeoutMillis < 0) {
+			throw new IllegalArgumentException("connectTimeoutMillis must not be negative");
+		}
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public String request(TokBoxRequest request) throws OpenTokException {
+		if (closed) {
+			throw new OpenTokException("Transport is closed");
+		}
+		URL url;
+		try {
+			url = new URL(request.getUrl());
+		} catch (MalformedURLException e) {
+			throw new OpenTokException("Invalid API url: " + request.getUrl());
+		}
+		Route route = route(url);
+		String path = url.getFile().length() == 0 ? "/" : url.getFile();
+		byte[] body = request.getBody();
+
+		try {
+			if (!request.hasDeadline()) {
+				route.permits.acquire();
+			} else if (!route.permits.tryAcquire(request.getDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out waiting for a connection to " + route.key, true);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OpenTokRequestException("Interrupted while waiting for a connection to " + route.key);
+		}
+		RequestEventListener listener = request.getListener();
+		try {
+			HttpConnection conn = poll_idle(route);
+			boolean reused = conn != null;
+			if (reused) {
+				connectionsReused.incrementAndGet();
+			} else {
+				conn = open(route, request);
+			}
+			if (listener != null) {
+				listener.connectionAcquired(request, System.nanoTime(), reused);
+			}
+			try {
+				return exchange(route, conn, path, request, body);
+			} catch (HttpConnection.DeadlineExpiredException e) {
+				throw expired(request, route, conn);
+			} catch (IOException e) {
+				conn.close();
+				if (!reused || conn.responseStarted() || e instanceof SocketTimeoutException) {
+					throw failure(request, e);
+				}
+			}
+			// The pooled connection had been closed by the server, retry on a new one
+			conn = open(route, request);
+			if (listener != null) {
+				listener.connectionAcquired(request, System.nanoTime(), false);
+			}
+			try {
+				return exchange(route, conn, path, request, body);
+			} catch (HttpConnection.DeadlineExpiredException e) {
+				throw expired(request, route, conn);
+			} catch (IOException e) {
+				conn.close();
+				throw failure(request, e);
+			}
+		} finally {
+			route.permits.release();
+		}
+	}
+
+	/** Nothing was written on conn, so it goes back to the pool. */
+	private OpenTokTimeoutException expired(TokBoxRequest request, Route route, HttpConnection conn) {
+		release(route, conn);
+		return new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out before sending", true);
+	}
+
+	private static OpenTokRequestException failure(TokBoxRequest request, IOException e) {
+		if (e instanceof SocketTimeoutException) {
+			return new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out: " + e.getMessage());
+		}
+		return new OpenTokRequestException("Request to " + request.getUrl() + " failed: " + e);
+	}
+
+	private String exchange(Route route, HttpConnection conn, String path, TokBoxRequest request, byte[] body) throws IOException, OpenTokException {
+		HttpConnection.Response response = conn.post(route.hostHeader, path, request, body);
+		release(route, conn);
+		// Throttling and server errors are reported with their status even when they carry an error
+		// body, so decorators such as LimitingTransport and RoutingTransport can react to them
+		if (response.status == 429 || response.status >= 500
+				|| ((response.status < 200 || response.status >= 300) && response.body.length == 0)) {
+			throw new OpenTokRequestException("Request to " + request.getUrl() + " failed with HTTP " + response.status, response.status);
+		}
+		return new String(response.body, "UTF-8");
+	}
+
+	private Route route(URL url) throws OpenTokException {
+		String scheme = url.getProtocol().toLowerCase();
+		if (!"http".equals(scheme) && !"https".equals(scheme)) {
+			throw new OpenTokException("Unsupported API url scheme: " + scheme);
+		}
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		String key = scheme + "://" + url.getHost() + ":" + port;
+		Route route = routes.get(key);
+		if (route == null) {
+			String hostHeader = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + port;
+			route = new Route(key, scheme, url.getHost(), port, hostHeader, maxConnectionsPerRoute);
+			Route existing = routes.putIfAbsent(key, route);
+			if (existing != null) {
+				route = existing;
+			}
+		}
+		return route;
+	}
+
+	private HttpConnection open(Route route, TokBoxRequest request) throws OpenTokException {
+		if (request.isExpired()) {
+			throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out before connecting to " + route.key, true);
+		}
+		int timeout = connectTimeoutMillis;
+		if (request.hasDeadline() && (timeout == 0 || request.timeoutMillis() < timeout)) {
+			timeout = request.timeoutMillis();
+		}
+		RequestEventListener listener = request.getListener();
+		if (listener != null) {
+			listener.connectStart(request, System.nanoTime());
+		}
+		try {
+			HttpConnection conn = HttpConnection.open(route.key, route.scheme, route.host, route.port, timeout);
+			if (listener != null) {
+				listener.connectEnd(request, System.nanoTime());
+			}
+			connectionsOpened.incrementAndGet();
+			start_reaper();
+			return conn;
+		} catch (SocketTimeoutException e) {
+			throw new OpenTokTimeoutException("Request to " + request.getUrl() + " timed out connecting to " + route.key);
+		} catch (IOException e) {
+			throw new OpenTokRequestException("Unable to connect to " + route.key + ": " + e);
+		}
+	}
+
+	private HttpConnection poll_idle(Route route) {
+		long now = System.currentTimeMillis();
+		HttpConnection conn;
+		while ((conn = route.idle.pollFirst()) != null) {
+			if (conn.isReusable() && now - conn.lastUsed < idleTimeoutMillis) {
+				return conn;
+			}
+			conn.close();
+		}
+		return null;
+	}
+
+	private void release(Route route, HttpConnection conn) {
+		if (closed || !conn.isReusable()) {
+			conn.close();
+			return;
+		}
+		conn.lastUsed = System.currentTimeMillis();
+		route.idle.offerFirst(conn);
+		if (closed && route.idle.remove(conn)) {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Closes every pooled connection that has been idle for longer than the idle timeout.
+	 */
+	public void evict_idle() {
+		long now = System.currentTimeMillis();
+		for (Route route : routes.values()) {
+			// Most recently used connections are at the head, so expired ones collect at the tail
+			for (Iterator<HttpConnection> i = route.idle.descendingIterator(); i.hasNext(); ) {
+				HttpConnection conn = i.next();
+				if (now - conn.lastUsed < idleTimeoutMillis && conn.isReusable()) {
+					break;
+				}
+				if (route.idle.removeLastOccurrence(conn)) {
+					conn.close();
+				}
+			}
+		}
+	}
+
+	private void start_reaper() {
+		if (reaper != null) {
+			return;
+		}
+		synchronized (this) {
+			if (reaper != null || closed) {
+				return;
+			}
+			ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor(AsyncExecutors.daemonThreadFactory("opentok-pool-reaper"));
+			long period = Math.max(idleTimeoutMillis / 2, 10);
+			s.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					evict_idle();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+			reaper = s;
+		}
+	}
+
+	/** Number of sockets this transport has opened. */
+	public long getConnectionsOpened() {
+		return connectionsOpened.get();
+	}
+
+	/** Number of requests that were sent on a pooled connection instead of a new socket. */
+	public long getConnectionsReused() {
+		return connectionsReused.get();
+	}
+
+	/** Number of connections currently idle in the pool, across all routes. */
+	public int getIdleConnections() {
+		int count = 0;
+		for (Route route : routes.values()) {
+			count += route.idle.size();
+		}
+		return count;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * Closes all idle connections and stops the reaper. Requests in flight finish normally,
+	 * after which their connections are closed instead of pooled.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			if (reaper != null) {
+				reaper.shutdownNow();
+			}
+		}
+		for (Route route : routes.values()) {
+			HttpConnection conn;
+			while ((conn = route.idle.pollFirst()) != null) {
+				conn.close();
+			}
+		}
+	}
+}
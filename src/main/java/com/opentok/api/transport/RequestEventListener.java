@@ -0,0 +1,91 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Receives the phases of API requests with System.nanoTime() timestamps, to see where the time of
+ * a slow call goes. Installed with OpenTokSDK.setEventListener; when none is installed no event
+ * is created and no timestamp is taken.
+ *
+ * Every method does nothing by default, so a listener overrides only the phases it needs. A call
+ * goes through:
+ *
+ *     callStart
+ *       connectionAcquired, after connectStart and connectEnd if a new socket was opened
+ *       requestWriteStart, requestWriteEnd
+ *       responseStart (first byte), responseHeadersEnd, responseBodyEnd
+ *     callEnd or callFailed
+ *     parseStart, parseEnd
+ *
+ * The transport phases are fired by PooledTokBoxTransport and TokBoxNetConnection, and repeat
+ * when a transport retries or hedges a request. Decorators may hand the transport a copy of the
+ * request, e.g. RoutingTransport with the chosen endpoint's url. The call and parse phases are
+ * fired by OpenTokSDK on the calling thread, parsing right after the call it belongs to;
+ * parseEnd follows parseStart whether or not the response could be read.
+ * HttpURLConnection does not report the first byte apart from the headers, so for
+ * TokBoxNetConnection responseStart and responseHeadersEnd coincide.
+ *
+ * Listeners are called on request threads and must be thread safe and quick.
+ */
+public abstract class RequestEventListener {
+
+	public void callStart(TokBoxRequest request, long nanoTime) {
+	}
+
+	/** Opening a socket, including the TLS handshake, starts. */
+	public void connectStart(TokBoxRequest request, long nanoTime) {
+	}
+
+	public void connectEnd(TokBoxRequest request, long nanoTime) {
+	}
+
+	/**
+	 * A connection is ready to send on: taken from the pool (reused) or just opened. For a pooled
+	 * transport the time since callStart includes waiting for a free connection.
+	 */
+	public void connectionAcquired(TokBoxRequest request, long nanoTime, boolean reused) {
+	}
+
+	public void requestWriteStart(TokBoxRequest request, long nanoTime) {
+	}
+
+	/** Headers and body have been written and flushed. */
+	public void requestWriteEnd(TokBoxRequest request, long nanoTime) {
+	}
+
+	/** The first byte of the response has arrived. */
+	public void responseStart(TokBoxRequest request, long nanoTime) {
+	}
+
+	public void responseHeadersEnd(TokBoxRequest request, long nanoTime, int status) {
+	}
+
+	/** The response body has been read, length bytes after decompression. */
+	public void responseBodyEnd(TokBoxRequest request, long nanoTime, int length) {
+	}
+
+	public void callEnd(TokBoxRequest request, long nanoTime) {
+	}
+
+	public void callFailed(TokBoxRequest request, long nanoTime, OpenTokException e) {
+	}
+
+	/**
+	 * Reading the response of request, into a TokBoxXML document or with TokBoxResponseReader,
+	 * starts. request is null when the response did not come from the SDK's transport, e.g. from
+	 * an OpenTokSDK subclass overriding do_request_raw.
+	 */
+	public void parseStart(TokBoxRequest request, long nanoTime) {
+	}
+
+	/** Reading the response has finished, or failed and is about to throw. */
+	public void parseEnd(TokBoxRequest request, long nanoTime) {
+	}
+}
@@ -0,0 +1,308 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRejectedException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+
+/**
+ * TokBoxTransport decorator that spreads requests over several API endpoints, such as regional
+ * or proxy fronts, instead of the single api_url the SDK was created with.
+ *
+ * The scheme, host and port of every request url are replaced with those of the chosen endpoint;
+ * the path is kept. For each endpoint an EWMA of the latency of successful requests and of the
+ * error rate is tracked. A request goes to the cheaper of two randomly picked endpoints (power of
+ * two choices), where the cost is the latency EWMA times the requests in flight plus one, divided
+ * by the success rate. The cost of an endpoint that gets no traffic decays, so one that was slow
+ * is tried again after a while, and its stale EWMA then gives way to the new sample.
+ *
+ * An endpoint that fails ejectAfterFailures requests in a row (no response, or HTTP 5xx) is
+ * ejected for ejectionMillis, doubling with every further ejection up to 8 times. If every endpoint
+ * is ejected, all of them are used. A request that failed without any response is retried once on
+ * another endpoint, unless it timed out.
+ *
+ *     sdk.setTransport(new RoutingTransport(new PooledTokBoxTransport(),
+ *             "https://api-us.example.com", "https://api-eu.example.com"));
+ */
+public class RoutingTransport implements TokBoxTransport {
+
+	public static final long DEFAULT_EJECTION_MILLIS = 10000;
+	public static final int DEFAULT_EJECT_AFTER_FAILURES = 5;
+
+	/** Weight of the newest sample in the EWMAs. */
+	private static final double ALPHA = 0.2;
+	/** Time constant with which the latency EWMA of an idle endpoint decays. */
+	private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final int MAX_EJECTION_FACTOR = 8;
+
+	private final TokBoxTransport delegate;
+	private final Endpoint[] endpoints;
+	private final long ejectionNanos;
+	private final int ejectAfterFailures;
+	/** Source of the candidate picks, or null for ThreadLocalRandom. */
+	private final Random random;
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * Statistics of one endpoint.
+	 */
+	public static final class Endpoint {
+		private final String url;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong ejections = new AtomicLong();
+		// guarded by this
+		private double latencyEwma;
+		private double errorEwma;
+		private long lastSampleNanos;
+		private int consecutiveFailures;
+		// Ejections since the last success, for the doubling ejection time
+		private int ejectionStreak;
+		private volatile long ejectedUntilNanos;
+
+		Endpoint(String url) {
+			this.url = url;
+		}
+
+		synchronized double cost(long now) {
+			// An idle endpoint looks cheaper and cheaper, so that it is eventually probed again
+			double latency = latencyEwma * idle_weight(now);
+			return latency * (inFlight.get() + 1) / Math.max(0.05, 1 - errorEwma);
+		}
+
+		// Called with the lock held
+		private double idle_weight(long now) {
+			return Math.exp(-(double) (now - lastSampleNanos) / DECAY_NANOS);
+		}
+
+		synchronized void success(long latencyNanos, long now) {
+			// The older the EWMA, the less weight it keeps against a new sample
+			double weight = latencyEwma == 0 ? 0 : (1 - ALPHA) * idle_weight(now);
+			latencyEwma = weight * latencyEwma + (1 - weight) * latencyNanos;
+			errorEwma -= ALPHA * errorEwma;
+			lastSampleNanos = now;
+			consecutiveFailures = 0;
+			ejectionStreak = 0;
+		}
+
+		/** Returns whether the endpoint should now be ejected. */
+		synchronized boolean failure(int ejectAfterFailures) {
+			failures.incrementAndGet();
+			errorEwma += ALPHA * (1 - errorEwma);
+			return ++consecutiveFailures >= ejectAfterFailures;
+		}
+
+		synchronized void eject(long ejectionNanos, int ejectAfterFailures, long now) {
+			ejections.incrementAndGet();
+			long factor = Math.min(MAX_EJECTION_FACTOR, 1L << Math.min(30, ejectionStreak++));
+			ejectedUntilNanos = now + ejectionNanos * factor;
+			// On return a single further failure ejects it again, a success clears the record
+			consecutiveFailures = ejectAfterFailures - 1;
+		}
+
+		boolean isEjected(long now) {
+			return ejectedUntilNanos - now > 0;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/** EWMA of the latency of successful requests, 0 before the first one. */
+		public synchronized double getLatencyMillis() {
+			return latencyEwma / 1e6;
+		}
+
+		/** EWMA of the fraction of failed requests. */
+		public synchronized double getErrorRate() {
+			return errorEwma;
+		}
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		public long getFailures() {
+			return failures.get();
+		}
+
+		public long getEjections() {
+			return ejections.get();
+		}
+
+		public boolean isEjected() {
+			return isEjected(System.nanoTime());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s latency=%.2fms errors=%.3f requests=%d ejected=%b",
+					url, getLatencyMillis(), getErrorRate(), getRequests(), isEjected());
+		}
+	}
+
+	public RoutingTransport(TokBoxTransport delegate, String... endpoints) {
+		this(delegate, DEFAULT_EJECTION_MILLIS, DEFAULT_EJECT_AFTER_FAILURES, endpoints);
+	}
+
+	/**
+	 * @param endpoints  base urls, e.g. "https://api.example.com" or "http://proxy:8080/opentok"
+	 */
+	public RoutingTransport(TokBoxTransport delegate, long ejectionMillis, int ejectAfterFailures, String... endpoints) {
+		this(delegate, ejectionMillis, ejectAfterFailures, null, endpoints);
+	}
+
+	/**
+	 * @param random  picks the two candidate endpoints of each request, e.g. a seeded Random for
+	 *                reproducible routing; null for ThreadLocalRandom
+	 */
+	public RoutingTransport(TokBoxTransport delegate, long ejectionMillis, int ejectAfterFailures, Random random, String... endpoints) {
+		if (delegate == null) {
+			throw new NullPointerException();
+		}
+		if (endpoints.length == 0) {
+			throw new IllegalArgumentException("At least one endpoint must be given");
+		}
+		if (ejectionMillis < 0) {
+			throw new IllegalArgumentException("ejectionMillis must not be negative");
+		}
+		if (ejectAfterFailures < 1) {
+			throw new IllegalArgumentException("ejectAfterFailures must be at least 1");
+		}
+		this.delegate = delegate;
+		this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+		this.ejectAfterFailures = ejectAfterFailures;
+		this.random = random;
+		this.endpoints = new Endpoint[endpoints.length];
+		for (int i = 0; i < endpoints.length; i++) {
+			String url = endpoints[i];
+			if (url.indexOf("://") < 0) {
+				throw new IllegalArgumentException("Not an absolute url: " + url);
+			}
+			this.endpoints[i] = new Endpoint(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+		}
+	}
+
+	public String request(TokBoxRequest request) throws OpenTokException {
+		Endpoint first = choose(null);
+		try {
+			return send(first, request);
+		} catch (OpenTokRequestException e) {
+			// A timed out request may have been processed, and its deadline has passed anyway
+			if (!endpoint_failure(e) || e.getStatusCode() != -1 || e instanceof OpenTokTimeoutException
+					|| endpoints.length == 1) {
+				throw e;
+			}
+		}
+		// Nothing came back from the first endpoint, try another one
+		retries.incrementAndGet();
+		return send(choose(first), request);
+	}
+
+	private String send(Endpoint endpoint, TokBoxRequest request) throws OpenTokException {
+		TokBoxRequest routed = route(request, endpoint);
+		endpoint.requests.incrementAndGet();
+		endpoint.inFlight.incrementAndGet();
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			String response = delegate.request(routed);
+			failed = false;
+			return response;
+		} catch (OpenTokRequestException e) {
+			failed = endpoint_failure(e);
+			throw e;
+		} finally {
+			endpoint.inFlight.decrementAndGet();
+			long now = System.nanoTime();
+			if (failed) {
+				if (endpoint.failure(ejectAfterFailures)) {
+					endpoint.eject(ejectionNanos, ejectAfterFailures, now);
+				}
+			} else {
+				endpoint.success(now - start, now);
+			}
+		}
+	}
+
+	/**
+	 * No response or HTTP 5xx. Client-side rejections, deadlines that passed before the request was
+	 * sent and 4xx answers are not the endpoint's fault.
+	 */
+	private static boolean endpoint_failure(OpenTokRequestException e) {
+		if (e instanceof OpenTokRejectedException
+				|| (e instanceof OpenTokTimeoutException && ((OpenTokTimeoutException) e).isClientSide())) {
+			return false;
+		}
+		int status = e.getStatusCode();
+		return status == -1 || status >= 500;
+	}
+
+	/** Power of two choices among the endpoints that are not ejected, other than exclude. */
+	private Endpoint choose(Endpoint exclude) {
+		long now = System.nanoTime();
+		Endpoint[] candidates = new Endpoint[endpoints.length];
+		int n = 0;
+		for (Endpoint e : endpoints) {
+			if (e != exclude && !e.isEjected(now)) {
+				candidates[n++] = e;
+			}
+		}
+		if (n == 0) {
+			// Everything is ejected; better to try than to fail outright
+			for (Endpoint e : endpoints) {
+				if (e != exclude) {
+					candidates[n++] = e;
+				}
+			}
+			if (n == 0) {
+				return exclude;
+			}
+		}
+		if (n == 1) {
+			return candidates[0];
+		}
+		Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+		int a = random.nextInt(n);
+		int b = random.nextInt(n - 1);
+		if (b >= a) {
+			b++;
+		}
+		return candidates[a].cost(now) <= candidates[b].cost(now) ? candidates[a] : candidates[b];
+	}
+
+	private static TokBoxRequest route(TokBoxRequest request, Endpoint endpoint) {
+		String url = request.getUrl();
+		int host = url.indexOf("://");
+		int path = host < 0 ? -1 : url.indexOf('/', host + 3);
+		return request.withUrl(endpoint.url + (path < 0 ? "" : url.substring(path)));
+	}
+
+	public List<Endpoint> getEndpoints() {
+		List<Endpoint> list = new ArrayList<Endpoint>(endpoints.length);
+		Collections.addAll(list, endpoints);
+		return Collections.unmodifiableList(list);
+	}
+
+	/** Requests retried on a second endpoint after the first gave no response. */
+	public long getRetries() {
+		return retries.get();
+	}
+}
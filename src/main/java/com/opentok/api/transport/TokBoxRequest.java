@@ -0,0 +1,117 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.opentok.util.FormEncoder;
+
+/**
+ * One API call handed to a TokBoxTransport: the full url, the form params and the extra
+ * request headers (such as X-TB-PARTNER-AUTH). The params are given either as a map or as an
+ * already form-encoded body. A request may carry a deadline, which transports apply to waiting
+ * for a connection, connecting and reading the response.
+ */
+public class TokBoxRequest {
+
+	private final String url;
+	private final Map<String, String> params;
+	private final byte[] body;
+	private final Map<String, String> headers;
+	private final RequestEventListener listener;
+	private final boolean has_deadline;
+	private final long deadline;
+
+	public TokBoxRequest(String url, Map<String, String> params, Map<String, String> headers) {
+		this(url, params, null, headers, null, false, 0);
+	}
+
+	/**
+	 * @body: the form-encoded params, e.g. from FormEncoder; not copied, so must not be changed afterwards
+	 */
+	public TokBoxRequest(String url, byte[] body, Map<String, String> headers) {
+		this(url, null, body, headers, null, false, 0);
+	}
+
+	private TokBoxRequest(String url, Map<String, String> params, byte[] body, Map<String, String> headers,
+			RequestEventListener listener, boolean has_deadline, long deadline) {
+		this.url = url;
+		this.params = params;
+		this.body = body;
+		this.headers = headers;
+		this.listener = listener;
+		this.has_deadline = has_deadline;
+		this.deadline = deadline;
+	}
+
+	/** A copy of this request sent to another url, with the same params, headers, listener and deadline. */
+	public TokBoxRequest withUrl(String url) {
+		return new TokBoxRequest(url, params, body, headers, listener, has_deadline, deadline);
+	}
+
+	/** A copy of this request whose phases are reported to listener. */
+	public TokBoxRequest withListener(RequestEventListener listener) {
+		return new TokBoxRequest(url, params, body, headers, listener, has_deadline, deadline);
+	}
+
+	/**
+	 * A copy of this request that must complete by deadline, a System.nanoTime() value.
+	 */
+	public TokBoxRequest withDeadline(long deadline) {
+		return new TokBoxRequest(url, params, body, headers, listener, true, deadline);
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/** The params, or null when the request was created with an encoded body. */
+	public Map<String, String> getParams() {
+		return params;
+	}
+
+	/** The form-encoded params to send as the request body. */
+	public byte[] getBody() {
+		return body != null ? body : FormEncoder.encode(params);
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	/** The listener for this request's phases, or null if there is none. */
+	public RequestEventListener getListener() {
+		return listener;
+	}
+
+	public boolean hasDeadline() {
+		return has_deadline;
+	}
+
+	/** The System.nanoTime() by which the request must complete; only meaningful if hasDeadline(). */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public boolean isExpired() {
+		return has_deadline && deadline - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Time left before the deadline as a socket timeout: 0, meaning none, for a request without a
+	 * deadline, otherwise at least 1 millisecond. Check isExpired() first.
+	 */
+	public int timeoutMillis() {
+		if (!has_deadline) {
+			return 0;
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, millis));
+	}
+}
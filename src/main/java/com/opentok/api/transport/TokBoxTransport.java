@@ -0,0 +1,25 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api.transport;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Sends API requests for OpenTokSDK.do_request.
+ *
+ * The default implementation is TokBoxNetConnection, one HttpURLConnection per call;
+ * PooledTokBoxTransport keeps connections alive. Implementations must be safe to use from several
+ * threads and may be shared between OpenTokSDK instances.
+ */
+public interface TokBoxTransport {
+
+	/**
+	 * POSTs the request's params as a form body to its url and returns the response body.
+	 */
+	String request(TokBoxRequest request) throws OpenTokException;
+}
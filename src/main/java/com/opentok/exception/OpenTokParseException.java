@@ -0,0 +1,12 @@
+package com.opentok.exception;
+
+/**
+ * An API response could not be parsed.
+ */
+public class OpenTokParseException extends OpenTokException {
+	private static final long serialVersionUID = 2873604520390761042L;
+
+	public OpenTokParseException(String err) {
+		super(err);
+	}
+}
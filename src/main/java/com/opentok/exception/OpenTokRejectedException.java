@@ -0,0 +1,13 @@
+package com.opentok.exception;
+
+/**
+ * A request was not sent because a client-side rate or concurrency limit was reached before its
+ * deadline.
+ */
+public class OpenTokRejectedException extends OpenTokRequestException {
+	private static final long serialVersionUID = 6182036519947724817L;
+
+	public OpenTokRejectedException(String err) {
+		super(err);
+	}
+}
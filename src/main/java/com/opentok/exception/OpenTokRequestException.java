@@ -0,0 +1,27 @@
+package com.opentok.exception;
+
+/**
+ * An API request did not succeed: the server could not be reached, answered with an HTTP error,
+ * or returned an error response.
+ */
+public class OpenTokRequestException extends OpenTokException {
+	private static final long serialVersionUID = -3270935118276498514L;
+
+	private final int statusCode;
+
+	public OpenTokRequestException(String err) {
+		this(err, -1);
+	}
+
+	public OpenTokRequestException(String err, int statusCode) {
+		super(err);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * HTTP status of the response, or -1 when no response was received or the status is unknown.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
@@ -0,0 +1,31 @@
+package com.opentok.exception;
+
+/**
+ * An API request did not complete before its deadline: connecting, waiting for a pooled
+ * connection, or waiting for the response took too long.
+ */
+public class OpenTokTimeoutException extends OpenTokRequestException {
+	private static final long serialVersionUID = -1528470930861655304L;
+
+	private final boolean clientSide;
+
+	public OpenTokTimeoutException(String err) {
+		this(err, false);
+	}
+
+	/**
+	 * @param clientSide  whether the deadline passed before the request was sent
+	 */
+	public OpenTokTimeoutException(String err, boolean clientSide) {
+		super(err);
+		this.clientSide = clientSide;
+	}
+
+	/**
+	 * True if the deadline passed before the request was sent, e.g. while waiting for a pooled
+	 * connection, so the API was not at fault and did not see the request.
+	 */
+	public boolean isClientSide() {
+		return clientSide;
+	}
+}
@@ -0,0 +1,13 @@
+package com.opentok.exception;
+
+/**
+ * An argument was rejected before any request was made, e.g. an invalid session id, role or
+ * expire time.
+ */
+public class OpenTokValidationException extends OpenTokException {
+	private static final long serialVersionUID = -4106952837196640823L;
+
+	public OpenTokValidationException(String err) {
+		super(err);
+	}
+}
@@ -0,0 +1,134 @@
+package com.opentok.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket, lock-free latency histogram.
+ *
+ * Bucket i counts durations up to 1024 << i nanoseconds (about 1us, 2us, 4us, ... 36 minutes);
+ * the last bucket also takes anything longer. Recording is one bucket lookup and two LongAdder
+ * increments, so it is cheap enough to leave on in production.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 32;
+
+	private static final long[] upperBounds = new long[BUCKETS];
+
+	static {
+		for (int i = 0; i < BUCKETS; i++) {
+			upperBounds[i] = 1024L << i;
+		}
+	}
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	static int bucket(long nanos) {
+		if (nanos <= 1024) {
+			return 0;
+		}
+		int i = 64 - Long.numberOfLeadingZeros((nanos - 1) >> 10);
+		return i < BUCKETS ? i : BUCKETS - 1;
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucket(nanos)].increment();
+		sum.add(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+		}
+	}
+
+	public Snapshot snapshot() {
+		long[] c = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			c[i] = counts[i].sum();
+			total += c[i];
+		}
+		return new Snapshot(c, total, sum.sum(), max.get());
+	}
+
+	/**
+	 * Point-in-time copy of a histogram. Counts read under concurrent updates may be off by the
+	 * updates in flight.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sumNanos;
+		private final long maxNanos;
+
+		Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+			this.counts = counts;
+			this.count = count;
+			this.sumNanos = sumNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		static Snapshot merge(Snapshot a, Snapshot b) {
+			long[] c = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				c[i] = a.counts[i] + b.counts[i];
+			}
+			return new Snapshot(c, a.count + b.count, a.sumNanos + b.sumNanos, Math.max(a.maxNanos, b.maxNanos));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSumNanos() {
+			return sumNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return count == 0 ? 0 : sumNanos / count;
+		}
+
+		/**
+		 * Upper bound of the bucket holding the given quantile (0..1), capped at the observed maximum.
+		 */
+		public long getPercentileNanos(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * count);
+			if (rank < 1) {
+				rank = 1;
+			}
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBounds[i], maxNanos);
+				}
+			}
+			return maxNanos;
+		}
+
+		public long[] getBucketCounts() {
+			return counts.clone();
+		}
+
+		public static long[] getBucketUpperBoundsNanos() {
+			return upperBounds.clone();
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package com.opentok.metrics;
+
+/**
+ * Adapter for forwarding SDK measurements to an external metrics system.
+ *
+ * record is called synchronously on the thread that ran the operation, so implementations
+ * should only update their own counters or histograms and return.
+ */
+public interface MetricsExporter {
+
+	void record(Operation operation, Outcome outcome, long durationNanos);
+}
@@ -0,0 +1,60 @@
+package com.opentok.metrics;
+
+/**
+ * Point-in-time copy of SdkMetrics.
+ */
+public class MetricsSnapshot {
+
+	private final LatencyHistogram.Snapshot[][] histograms;
+
+	MetricsSnapshot(LatencyHistogram.Snapshot[][] histograms) {
+		this.histograms = histograms;
+	}
+
+	public long getCount(Operation operation, Outcome outcome) {
+		return histograms[operation.ordinal()][outcome.ordinal()].getCount();
+	}
+
+	/** Count over all outcomes. */
+	public long getCount(Operation operation) {
+		long count = 0;
+		for (LatencyHistogram.Snapshot h : histograms[operation.ordinal()]) {
+			count += h.getCount();
+		}
+		return count;
+	}
+
+	public LatencyHistogram.Snapshot getLatency(Operation operation, Outcome outcome) {
+		return histograms[operation.ordinal()][outcome.ordinal()];
+	}
+
+	/** Latency over all outcomes. */
+	public LatencyHistogram.Snapshot getLatency(Operation operation) {
+		LatencyHistogram.Snapshot[] byOutcome = histograms[operation.ordinal()];
+		LatencyHistogram.Snapshot merged = byOutcome[0];
+		for (int i = 1; i < byOutcome.length; i++) {
+			merged = LatencyHistogram.Snapshot.merge(merged, byOutcome[i]);
+		}
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Operation operation : Operation.values()) {
+			for (Outcome outcome : Outcome.values()) {
+				LatencyHistogram.Snapshot h = getLatency(operation, outcome);
+				if (h.getCount() == 0) {
+					continue;
+				}
+				sb.append(operation).append('/').append(outcome)
+					.append(" count=").append(h.getCount())
+					.append(" mean=").append(h.getMeanNanos() / 1000).append("us")
+					.append(" p50=").append(h.getPercentileNanos(0.5) / 1000).append("us")
+					.append(" p99=").append(h.getPercentileNanos(0.99) / 1000).append("us")
+					.append(" max=").append(h.getMaxNanos() / 1000).append("us\n");
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,11 @@
+package com.opentok.metrics;
+
+/**
+ * SDK operations that are timed and counted by SdkMetrics.
+ */
+public enum Operation {
+	GENERATE_TOKEN,
+	CREATE_SESSION,
+	DO_REQUEST,
+	XML_PARSE
+}
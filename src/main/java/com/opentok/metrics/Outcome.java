@@ -0,0 +1,49 @@
+package com.opentok.metrics;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokParseException;
+import com.opentok.exception.OpenTokRejectedException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import com.opentok.exception.OpenTokValidationException;
+
+/**
+ * How an instrumented operation ended.
+ */
+public enum Outcome {
+	SUCCESS,
+	/** Rejected before any request was made, e.g. an invalid session id, role or expire time. */
+	VALIDATION_ERROR,
+	/** The API could not be reached, answered with an HTTP error or returned an error response. */
+	HTTP_ERROR,
+	/** The API response could not be parsed. */
+	PARSE_ERROR,
+	/** Not sent because a client-side rate or concurrency limit was reached, see LimitingTransport. */
+	REJECTED,
+	/** The request's deadline passed before the API answered, see OpenTokSDK.setTimeout. */
+	TIMEOUT,
+	/**
+	 * Failed for another reason, e.g. a closed transport, an invalid api url, an executor that
+	 * refused the work or an interrupted caller.
+	 */
+	OTHER_ERROR;
+
+	public static Outcome of(OpenTokException e) {
+		if (e instanceof OpenTokTimeoutException) {
+			return TIMEOUT;
+		}
+		if (e instanceof OpenTokRejectedException) {
+			return REJECTED;
+		}
+		if (e instanceof OpenTokParseException) {
+			return PARSE_ERROR;
+		}
+		if (e instanceof OpenTokRequestException) {
+			return HTTP_ERROR;
+		}
+		if (e instanceof OpenTokValidationException) {
+			return VALIDATION_ERROR;
+		}
+		return OTHER_ERROR;
+	}
+}
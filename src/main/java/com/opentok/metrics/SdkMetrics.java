@@ -0,0 +1,46 @@
+package com.opentok.metrics;
+
+/**
+ * Counters and latency histograms for the SDK's operations, broken down by outcome.
+ *
+ * Every OpenTokSDK records into its own SdkMetrics (see OpenTokSDK.getMetrics). Recording is
+ * lock-free; snapshot() copies the current state. An optional MetricsExporter receives every
+ * measurement as well, for forwarding to an external metrics system.
+ */
+public class SdkMetrics {
+
+	private final LatencyHistogram[][] histograms;
+	private volatile MetricsExporter exporter;
+
+	public SdkMetrics() {
+		histograms = new LatencyHistogram[Operation.values().length][Outcome.values().length];
+		for (int i = 0; i < histograms.length; i++) {
+			for (int j = 0; j < histograms[i].length; j++) {
+				histograms[i][j] = new LatencyHistogram();
+			}
+		}
+	}
+
+	public void record(Operation operation, Outcome outcome, long durationNanos) {
+		histograms[operation.ordinal()][outcome.ordinal()].record(durationNanos);
+		MetricsExporter e = exporter;
+		if (e != null) {
+			e.record(operation, outcome, durationNanos);
+		}
+	}
+
+	public void setExporter(MetricsExporter exporter) {
+		this.exporter = exporter;
+	}
+
+	public MetricsSnapshot snapshot() {
+		LatencyHistogram.Snapshot[][] copy = new LatencyHistogram.Snapshot[histograms.length][];
+		for (int i = 0; i < histograms.length; i++) {
+			copy[i] = new LatencyHistogram.Snapshot[histograms[i].length];
+			for (int j = 0; j < histograms[i].length; j++) {
+				copy[i][j] = histograms[i][j].snapshot();
+			}
+		}
+		return new MetricsSnapshot(copy);
+	}
+}
@@ -0,0 +1,60 @@
+package com.opentok.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor for the SDK's asynchronous calls.
+ *
+ * On JDKs with virtual threads (21+) every task gets its own virtual thread, so blocking on the
+ * API round trip does not hold a platform thread. On older JDKs it falls back to a cached pool of
+ * daemon threads. The executor is created once and shared by all OpenTokSDK instances.
+ */
+public class AsyncExecutors {
+
+	private static volatile ExecutorService defaultExecutor;
+
+	public static ExecutorService defaultExecutor() {
+		ExecutorService executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (AsyncExecutors.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					executor = newVirtualThreadExecutor();
+					if (executor == null) {
+						executor = Executors.newCachedThreadPool(daemonThreadFactory("opentok-async"));
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns a virtual-thread-per-task executor, or null when the running JDK has no virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public static ThreadFactory daemonThreadFactory(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
@@ -1,57 +1,180 @@
 package com.opentok.util;
 
+import java.io.UnsupportedEncodingException;
+
 public class Base64 {
 
     private static final String base64code = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
             + "abcdefghijklmnopqrstuvwxyz" + "0123456789" + "+/";
 
+    private static final char[] base64chars = base64code.toCharArray();
+
     private static final int splitLinesAt = 76;
 
+    // value of each base64 character, -1 for anything else
+    private static final byte[] base64values = new byte[128];
+
+    static {
+        java.util.Arrays.fill(base64values, (byte) -1);
+        for (int i = 0; i < base64chars.length; i++) {
+            base64values[base64chars[i]] = (byte) i;
+        }
+    }
+
     public static byte[] zeroPad(int length, byte[] bytes) {
         byte[] padded = new byte[length]; // initialized to zero by JVM
         System.arraycopy(bytes, 0, padded, 0, bytes.length);
         return padded;
     }
 
+    /**
+     * Number of characters (or bytes) produced when encoding length input bytes, padding included.
+     */
+    public static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
     public static String encode(String string) {
 
-        String encoded = "";
         byte[] stringArray;
         try {
             stringArray = string.getBytes("UTF-8");  // use appropriate encoding string!
-        } catch (Exception ignored) {
+        } catch (UnsupportedEncodingException ignored) {
             stringArray = string.getBytes();  // use locale default rather than croak
         }
-        // determine how many padding bytes to add to the output
-        int paddingCount = (3 - (stringArray.length % 3)) % 3;
-        // add any necessary padding to the input
-        stringArray = zeroPad(stringArray.length + paddingCount, stringArray);
-        // process 3 bytes at a time, churning out 4 output bytes
-        // worry about CRLF insertions later
-        for (int i = 0; i < stringArray.length; i += 3) {
-            int j = ((stringArray[i] & 0xff) << 16) +
-                ((stringArray[i + 1] & 0xff) << 8) +
-                (stringArray[i + 2] & 0xff);
-            encoded = encoded + base64code.charAt((j >> 18) & 0x3f) +
-                base64code.charAt((j >> 12) & 0x3f) +
-                base64code.charAt((j >> 6) & 0x3f) +
-                base64code.charAt(j & 0x3f);
-        }
-        // replace encoded padding nulls with "="
-        return encoded.substring(0, encoded.length() -
-								 paddingCount) + "==".substring(0, paddingCount);
+        char[] encoded = new char[encodedLength(stringArray.length)];
+        encode(stringArray, 0, stringArray.length, encoded, 0);
+        return new String(encoded);
+    }
+
+    /**
+     * Encodes length bytes of src starting at offset into dst at dstOffset.
+     * dst must have room for encodedLength(length) characters.
+     * Returns the number of characters written.
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int end = offset + length;
+        int whole = offset + (length / 3) * 3;
+        int d = dstOffset;
+        int i = offset;
+        // process 3 bytes at a time, churning out 4 output chars
+        for (; i < whole; i += 3) {
+            int j = ((src[i] & 0xff) << 16) | ((src[i + 1] & 0xff) << 8) | (src[i + 2] & 0xff);
+            dst[d++] = base64chars[(j >> 18) & 0x3f];
+            dst[d++] = base64chars[(j >> 12) & 0x3f];
+            dst[d++] = base64chars[(j >> 6) & 0x3f];
+            dst[d++] = base64chars[j & 0x3f];
+        }
+        // trailing 1 or 2 bytes are zero padded, padding chars replaced with "="
+        if (i < end) {
+            int j = (src[i] & 0xff) << 16;
+            if (i + 1 < end) {
+                j |= (src[i + 1] & 0xff) << 8;
+            }
+            dst[d++] = base64chars[(j >> 18) & 0x3f];
+            dst[d++] = base64chars[(j >> 12) & 0x3f];
+            dst[d++] = i + 1 < end ? base64chars[(j >> 6) & 0x3f] : '=';
+            dst[d++] = '=';
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Encodes length bytes of src starting at offset into dst at dstOffset as ASCII bytes.
+     * dst must have room for encodedLength(length) bytes.
+     * Returns the number of bytes written.
+     */
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int whole = offset + (length / 3) * 3;
+        int d = dstOffset;
+        int i = offset;
+        for (; i < whole; i += 3) {
+            int j = ((src[i] & 0xff) << 16) | ((src[i + 1] & 0xff) << 8) | (src[i + 2] & 0xff);
+            dst[d++] = (byte) base64chars[(j >> 18) & 0x3f];
+            dst[d++] = (byte) base64chars[(j >> 12) & 0x3f];
+            dst[d++] = (byte) base64chars[(j >> 6) & 0x3f];
+            dst[d++] = (byte) base64chars[j & 0x3f];
+        }
+        if (i < end) {
+            int j = (src[i] & 0xff) << 16;
+            if (i + 1 < end) {
+                j |= (src[i + 1] & 0xff) << 8;
+            }
+            dst[d++] = (byte) base64chars[(j >> 18) & 0x3f];
+            dst[d++] = (byte) base64chars[(j >> 12) & 0x3f];
+            dst[d++] = i + 1 < end ? (byte) base64chars[(j >> 6) & 0x3f] : (byte) '=';
+            dst[d++] = (byte) '=';
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Largest number of bytes produced when decoding length characters.
+     */
+    public static int decodedLength(int length) {
+        return (length / 4) * 3;
+    }
+
+    /**
+     * Decodes length characters of src starting at offset into dst at dstOffset.
+     * The input must be padded to a multiple of 4 characters and contain no line breaks;
+     * dst must have room for decodedLength(length) bytes.
+     * Returns the number of bytes written, or -1 if the input is not valid base64.
+     */
+    public static int decode(CharSequence src, int offset, int length, byte[] dst, int dstOffset) {
+        if (length % 4 != 0) {
+            return -1;
+        }
+        int end = offset + length;
+        int d = dstOffset;
+        for (int i = offset; i < end; i += 4) {
+            int c0 = value(src.charAt(i));
+            int c1 = value(src.charAt(i + 1));
+            char p2 = src.charAt(i + 2);
+            char p3 = src.charAt(i + 3);
+            if (c0 < 0 || c1 < 0) {
+                return -1;
+            }
+            dst[d++] = (byte) ((c0 << 2) | (c1 >> 4));
+            // padding is only allowed in the last group
+            if (p3 == '=' && i + 4 == end) {
+                if (p2 == '=') {
+                    break;
+                }
+                int c2 = value(p2);
+                if (c2 < 0) {
+                    return -1;
+                }
+                dst[d++] = (byte) ((c1 << 4) | (c2 >> 2));
+                break;
+            }
+            int c2 = value(p2);
+            int c3 = value(p3);
+            if (c2 < 0 || c3 < 0) {
+                return -1;
+            }
+            dst[d++] = (byte) ((c1 << 4) | (c2 >> 2));
+            dst[d++] = (byte) ((c2 << 6) | c3);
+        }
+        return d - dstOffset;
+    }
 
+    private static int value(char c) {
+        return c < 128 ? base64values[c] : -1;
     }
+
     public static String splitLines(String string) {
 
-        String lines = "";
-        for (int i = 0; i < string.length(); i += splitLinesAt) {
+        int length = string.length();
+        StringBuilder lines = new StringBuilder(length + ((length + splitLinesAt - 1) / splitLinesAt) * 2);
+        for (int i = 0; i < length; i += splitLinesAt) {
 
-            lines += string.substring(i, Math.min(string.length(), i + splitLinesAt));
-            lines += "\r\n";
+            lines.append(string, i, Math.min(length, i + splitLinesAt));
+            lines.append("\r\n");
 
         }
-        return lines;
+        return lines.toString();
 
     }
-}
\ No newline at end of file
+}
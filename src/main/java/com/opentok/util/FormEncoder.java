@@ -0,0 +1,127 @@
+package com.opentok.util;
+
+import java.util.Map;
+
+/**
+ * Encodes API params as an application/x-www-form-urlencoded UTF-8 body, straight into bytes.
+ *
+ * The output is byte for byte what the transports used to build with
+ * URLEncoder.encode(key) + "=" + URLEncoder.encode(value).replaceAll("\\+", "%20") + "&" per param:
+ * spaces are "+" in keys and "%20" in values, params with a null value are left out and every
+ * param is followed by "&". The body is sized exactly in a first pass and filled in a second, so
+ * no intermediate Strings, builders or regular expressions are involved.
+ */
+public class FormEncoder {
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	// characters URLEncoder leaves as they are
+	private static final boolean[] unreserved = new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			unreserved[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			unreserved[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			unreserved[c] = true;
+		}
+		unreserved['.'] = true;
+		unreserved['-'] = true;
+		unreserved['*'] = true;
+		unreserved['_'] = true;
+	}
+
+	public static byte[] encode(Map<String, String> params) {
+		if (params == null || params.isEmpty()) {
+			return new byte[0];
+		}
+		int length = 0;
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			if (param.getValue() != null) {
+				length += encodedLength(param.getKey(), false) + 1 + encodedLength(param.getValue(), true) + 1;
+			}
+		}
+		byte[] body = new byte[length];
+		int pos = 0;
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			if (param.getValue() != null) {
+				pos = encode(param.getKey(), false, body, pos);
+				body[pos++] = '=';
+				pos = encode(param.getValue(), true, body, pos);
+				body[pos++] = '&';
+			}
+		}
+		return body;
+	}
+
+	/**
+	 * Number of bytes encode(s, value, ...) writes.
+	 */
+	public static int encodedLength(String s, boolean value) {
+		int length = 0;
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 128) {
+				length += unreserved[c] || (c == ' ' && !value) ? 1 : 3;
+			} else if (c < 0x800) {
+				length += 6;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 12;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogates are encoded as "?" like URLEncoder does
+				length += 3;
+			} else {
+				length += 9;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Percent-encodes the UTF-8 bytes of s into dst at pos and returns the position after it.
+	 * A space becomes "%20" when value is true and "+" otherwise.
+	 */
+	public static int encode(String s, boolean value, byte[] dst, int pos) {
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 128) {
+				if (unreserved[c]) {
+					dst[pos++] = (byte) c;
+				} else if (c == ' ' && !value) {
+					dst[pos++] = '+';
+				} else {
+					pos = escape(c, dst, pos);
+				}
+			} else if (c < 0x800) {
+				pos = escape(0xc0 | (c >> 6), dst, pos);
+				pos = escape(0x80 | (c & 0x3f), dst, pos);
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				pos = escape(0xf0 | (cp >> 18), dst, pos);
+				pos = escape(0x80 | ((cp >> 12) & 0x3f), dst, pos);
+				pos = escape(0x80 | ((cp >> 6) & 0x3f), dst, pos);
+				pos = escape(0x80 | (cp & 0x3f), dst, pos);
+			} else if (Character.isSurrogate(c)) {
+				pos = escape('?', dst, pos);
+			} else {
+				pos = escape(0xe0 | (c >> 12), dst, pos);
+				pos = escape(0x80 | ((c >> 6) & 0x3f), dst, pos);
+				pos = escape(0x80 | (c & 0x3f), dst, pos);
+			}
+		}
+		return pos;
+	}
+
+	private static int escape(int b, byte[] dst, int pos) {
+		dst[pos] = '%';
+		dst[pos + 1] = HEX[(b >> 4) & 0x0f];
+		dst[pos + 2] = HEX[b & 0x0f];
+		return pos + 3;
+	}
+}
@@ -0,0 +1,151 @@
+package com.opentok.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.SignatureException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA1 signer bound to a single secret.
+ *
+ * The key spec and provider lookup are done once; each thread then signs with its own
+ * initialized Mac (cloned from a prototype) and writes the hex digest into a per-thread
+ * buffer, so signing a token does not allocate beyond the returned String.
+ * Instances are safe to share between threads.
+ */
+public class HmacSigner {
+	private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
+
+	/** Length in bytes of a raw HMAC-SHA1 digest. */
+	public static final int MAC_LENGTH = 20;
+
+	/** Length in characters of a hex-encoded HMAC-SHA1 digest. */
+	public static final int HEX_LENGTH = MAC_LENGTH * 2;
+
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final SecretKeySpec signingKey;
+	private final Mac prototype;
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State(newMac());
+		}
+	};
+
+	private static final class State {
+		final Mac mac;
+		final byte[] raw = new byte[MAC_LENGTH];
+		final char[] hex = new char[HEX_LENGTH];
+
+		State(Mac mac) {
+			this.mac = mac;
+		}
+	}
+
+	public HmacSigner(String key) throws SignatureException {
+		this(key.getBytes());
+	}
+
+	public HmacSigner(byte[] keyBytes) throws SignatureException {
+		try {
+			this.signingKey = new SecretKeySpec(keyBytes, HMAC_SHA1_ALGORITHM);
+			this.prototype = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+			this.prototype.init(signingKey);
+		} catch (Exception e) {
+			throw new SignatureException("Failed to initialize HMAC : " + e.getMessage());
+		}
+	}
+
+	private Mac newMac() {
+		try {
+			synchronized (prototype) {
+				return (Mac) prototype.clone();
+			}
+		} catch (CloneNotSupportedException e) {
+			// Provider does not support cloning, fall back to a fresh instance
+			try {
+				Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+				mac.init(signingKey);
+				return mac;
+			} catch (Exception ex) {
+				throw new IllegalStateException("Failed to initialize HMAC : " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Signs the UTF-8 bytes of data and returns the lowercase hex digest.
+	 */
+	public String sign(String data) throws SignatureException {
+		byte[] bytes;
+		try {
+			bytes = data.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+		}
+		return sign(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Signs length bytes of data starting at offset and returns the lowercase hex digest.
+	 */
+	public String sign(byte[] data, int offset, int length) throws SignatureException {
+		State s = state.get();
+		digest(s, data, offset, length);
+		byte[] raw = s.raw;
+		char[] hex = s.hex;
+		for (int i = 0; i < MAC_LENGTH; i++) {
+			hex[i * 2] = HEX_CHARS[(raw[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX_CHARS[raw[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Signs length bytes of data starting at offset and writes the lowercase hex digest as
+	 * ASCII bytes into dst at dstOffset. Returns the number of bytes written (always HEX_LENGTH).
+	 */
+	public int signHex(byte[] data, int offset, int length, byte[] dst, int dstOffset) throws SignatureException {
+		State s = state.get();
+		digest(s, data, offset, length);
+		byte[] raw = s.raw;
+		for (int i = 0; i < MAC_LENGTH; i++) {
+			dst[dstOffset + i * 2] = (byte) HEX_CHARS[(raw[i] >> 4) & 0x0f];
+			dst[dstOffset + i * 2 + 1] = (byte) HEX_CHARS[raw[i] & 0x0f];
+		}
+		return HEX_LENGTH;
+	}
+
+	/**
+	 * Signs length bytes of data starting at offset and compares the lowercase hex digest with
+	 * the sigLength ASCII bytes of sig at sigOffset. The comparison takes the same time wherever
+	 * the first difference is, so it does not leak how much of a forged signature is correct.
+	 */
+	public boolean verifyHex(byte[] data, int offset, int length, byte[] sig, int sigOffset, int sigLength) throws SignatureException {
+		State s = state.get();
+		digest(s, data, offset, length);
+		if (sigLength != HEX_LENGTH) {
+			return false;
+		}
+		byte[] raw = s.raw;
+		int diff = 0;
+		for (int i = 0; i < MAC_LENGTH; i++) {
+			diff |= sig[sigOffset + i * 2] ^ HEX_CHARS[(raw[i] >> 4) & 0x0f];
+			diff |= sig[sigOffset + i * 2 + 1] ^ HEX_CHARS[raw[i] & 0x0f];
+		}
+		return diff == 0;
+	}
+
+	private static void digest(State s, byte[] data, int offset, int length) throws SignatureException {
+		try {
+			s.mac.update(data, offset, length);
+			s.mac.doFinal(s.raw, 0);
+		} catch (ShortBufferException e) {
+			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+		} catch (IllegalStateException e) {
+			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.opentok.util;
+
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokParseException;
+import com.opentok.exception.OpenTokRequestException;
+
+/**
+ * Streaming alternative to TokBoxXML for callers that only need a few values from a response.
+ *
+ * Each path has the form "Parent/element" and resolves like TokBoxXML.getElementValue(element, Parent):
+ * the text of the first direct child named element of the first Parent element in the document.
+ * All paths are read in a single pass without building a DOM. As with TokBoxXML, a response that
+ * contains an error element is rejected with an OpenTokException carrying the response.
+ */
+public class TokBoxResponseReader {
+
+	private static final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory f = XMLInputFactory.newInstance();
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+			f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			try {
+				// The JDK implementation can recycle a closed reader and its buffers; the factory
+				// is per thread, so at most one reader from it is open at a time
+				f.setProperty("reuse-instance", Boolean.TRUE);
+			} catch (IllegalArgumentException e) {
+				// other StAX implementations allocate a new reader per response
+			}
+			return f;
+		}
+	};
+
+	/**
+	 * Returns the value for each path, in order; a value is null when the element is absent
+	 * and "" when it is present but empty.
+	 */
+	public static String[] read(String xmlResponse, String... paths) throws OpenTokException {
+		if (null == xmlResponse) {
+			throw new OpenTokRequestException("There was an error in retrieving the response. Please make sure that you are pointing to the correct server");
+		}
+		try {
+			XMLStreamReader reader = factory.get().createXMLStreamReader(new StringReader(xmlResponse));
+			return read(reader, xmlResponse, paths);
+		} catch (XMLStreamException e) {
+			throw new OpenTokParseException(e.toString());
+		}
+	}
+
+	public static String[] read(InputStream xmlResponse, String... paths) throws OpenTokException {
+		try {
+			XMLStreamReader reader = factory.get().createXMLStreamReader(xmlResponse, "UTF-8");
+			return read(reader, null, paths);
+		} catch (XMLStreamException e) {
+			throw new OpenTokParseException(e.toString());
+		}
+	}
+
+	private static String[] read(XMLStreamReader reader, String xmlResponse, String[] paths) throws XMLStreamException, OpenTokException {
+		int n = paths.length;
+		String[] parents = new String[n];
+		String[] children = new String[n];
+		for (int i = 0; i < n; i++) {
+			int slash = paths[i].indexOf('/');
+			if (slash <= 0 || slash == paths[i].length() - 1) {
+				throw new IllegalArgumentException("Path must be Parent/element: " + paths[i]);
+			}
+			parents[i] = paths[i].substring(0, slash);
+			children[i] = paths[i].substring(slash + 1);
+		}
+
+		String[] values = new String[n];
+		// depth of the first matching parent element per path; 0 while not yet seen, -1 once closed
+		int[] parentDepth = new int[n];
+		// depth of the matching child element per path while its text is being captured
+		int[] captureDepth = new int[n];
+		StringBuilder[] text = new StringBuilder[n];
+		int capturing = 0;
+		int depth = 0;
+
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = reader.getLocalName();
+					if ("error".equals(name)) {
+						throw new OpenTokRequestException(xmlResponse != null ? xmlResponse : "API responded with an error");
+					}
+					for (int i = 0; i < n; i++) {
+						if (parentDepth[i] == 0 && parents[i].equals(name)) {
+							parentDepth[i] = depth;
+						} else if (parentDepth[i] > 0 && depth == parentDepth[i] + 1 && values[i] == null
+								&& captureDepth[i] == 0 && children[i].equals(name)) {
+							captureDepth[i] = depth;
+							text[i] = new StringBuilder();
+							capturing++;
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					for (int i = 0; i < n; i++) {
+						if (captureDepth[i] == depth) {
+							values[i] = text[i].toString();
+							text[i] = null;
+							captureDepth[i] = 0;
+							capturing--;
+						}
+						if (parentDepth[i] == depth) {
+							parentDepth[i] = -1;
+						}
+					}
+					depth--;
+				} else if (capturing > 0 && (event == XMLStreamConstants.CHARACTERS
+						|| event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+					for (int i = 0; i < n; i++) {
+						if (text[i] != null) {
+							text[i].append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return values;
+	}
+}
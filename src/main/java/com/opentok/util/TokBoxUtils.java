@@ -14,8 +14,15 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
 
 public class TokBoxUtils {
+
+	private static final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+
+	// DocumentBuilder is not thread safe, keep one per thread and reset it between documents
+	private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+
 	public static Node parseXML(String matchToken, NodeList nodelist) {
 		Node token = null;
 		int index = 0;
@@ -32,19 +39,25 @@ public class TokBoxUtils {
 
 	public static Document setupDocument(String xmlResponse) throws ParserConfigurationException, SAXException, IOException, OpenTokException {
 		if(null == xmlResponse) {
-			throw new OpenTokException("There was an error in retrieving the response. Please make sure that you are pointing to the correct server");
+			throw new OpenTokRequestException("There was an error in retrieving the response. Please make sure that you are pointing to the correct server");
 		}
 
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder builder;
+		DocumentBuilder builder = builders.get();
 		Document document;
 		
-		builder = dbFactory.newDocumentBuilder();
+		if (builder == null) {
+			synchronized (dbFactory) {
+				builder = dbFactory.newDocumentBuilder();
+			}
+			builders.set(builder);
+		} else {
+			builder.reset();
+		}
 		document = builder.parse(new InputSource(new StringReader(xmlResponse)));
 		Node errorNodes = TokBoxUtils.parseXML("error", document.getElementsByTagName("error"));
 
 		if(null != errorNodes) {
-			throw new OpenTokException(xmlResponse);
+			throw new OpenTokRequestException(xmlResponse);
 		}
 
 		return document;
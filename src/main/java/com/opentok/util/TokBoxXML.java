@@ -9,6 +9,7 @@ import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokParseException;
 import com.opentok.util.TokBoxUtils;
 
 public class TokBoxXML {
@@ -20,11 +21,11 @@ public class TokBoxXML {
 		try {
 			this.xml = TokBoxUtils.setupDocument(xmlString);
 		} catch(IOException ioe) {
-			throw new OpenTokException(ioe.toString());	
+			throw new OpenTokParseException(ioe.toString());	
 		} catch(ParserConfigurationException pce) {
-			throw new OpenTokException(pce.toString());
+			throw new OpenTokParseException(pce.toString());
 		} catch(SAXException saxe) {
-			throw new OpenTokException(saxe.toString());
+			throw new OpenTokParseException(saxe.toString());
 		}
 	}
 
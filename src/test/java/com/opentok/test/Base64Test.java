@@ -0,0 +1,113 @@
+/*
+ * Offline tests for com.opentok.util.Base64.
+ * The encoder must stay byte-identical to the original string-concatenating implementation,
+ * which is kept below as the reference.
+ */
+
+package com.opentok.test;
+
+import com.opentok.util.Base64;
+import java.net.URLEncoder;
+import java.util.Random;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class Base64Test {
+
+    private static final String base64code = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz" + "0123456789" + "+/";
+
+    // Original encoder, kept verbatim as the reference output.
+    private static String legacyEncode(String string) {
+        String encoded = "";
+        byte[] stringArray;
+        try {
+            stringArray = string.getBytes("UTF-8");
+        } catch (Exception ignored) {
+            stringArray = string.getBytes();
+        }
+        int paddingCount = (3 - (stringArray.length % 3)) % 3;
+        stringArray = Base64.zeroPad(stringArray.length + paddingCount, stringArray);
+        for (int i = 0; i < stringArray.length; i += 3) {
+            int j = ((stringArray[i] & 0xff) << 16) +
+                ((stringArray[i + 1] & 0xff) << 8) +
+                (stringArray[i + 2] & 0xff);
+            encoded = encoded + base64code.charAt((j >> 18) & 0x3f) +
+                base64code.charAt((j >> 12) & 0x3f) +
+                base64code.charAt((j >> 6) & 0x3f) +
+                base64code.charAt(j & 0x3f);
+        }
+        return encoded.substring(0, encoded.length() -
+                                 paddingCount) + "==".substring(0, paddingCount);
+    }
+
+    private static String legacySplitLines(String string) {
+        String lines = "";
+        for (int i = 0; i < string.length(); i += 76) {
+            lines += string.substring(i, Math.min(string.length(), i + 76));
+            lines += "\r\n";
+        }
+        return lines;
+    }
+
+    private static String randomString(Random random, int length, boolean unicode) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(unicode ? (char) (0x20 + random.nextInt(0x3000)) : (char) (0x20 + random.nextInt(0x5f)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testEncodeMatchesLegacyAllLengths() {
+        Random random = new Random(42);
+        for (int length = 0; length <= 1100; length++) {
+            String ascii = randomString(random, length, false);
+            Assert.assertEquals("ascii length " + length, legacyEncode(ascii), Base64.encode(ascii));
+            String unicode = randomString(random, length, true);
+            Assert.assertEquals("unicode length " + length, legacyEncode(unicode), Base64.encode(unicode));
+        }
+    }
+
+    @Test
+    public void testEncodeTokenPayloadsUpToConnectionDataLimit() throws Exception {
+        Random random = new Random(7);
+        String prefix = "partner_id=12345&sig=0123456789abcdef0123456789abcdef01234567:"
+                + "session_id=1_MX4xMjM0NX4xMjcuMC4wLjF-RnJpIE9jdCAxOCAyMDI2fjAuMTIzNH4"
+                + "&create_time=1792345678&nonce=-123456789&role=moderator&expire_time=1792432078";
+        for (int length = 0; length <= 1000; length++) {
+            String payload = prefix + "&connection_data="
+                    + URLEncoder.encode(randomString(random, length, length % 2 == 0), "UTF-8");
+            Assert.assertEquals("connection_data length " + length, legacyEncode(payload), Base64.encode(payload));
+        }
+    }
+
+    @Test
+    public void testEncodeIntoCallerBuffers() throws Exception {
+        Random random = new Random(3);
+        for (int length = 0; length <= 300; length++) {
+            byte[] src = new byte[length + 5];
+            random.nextBytes(src);
+            String expected = java.util.Base64.getEncoder().encodeToString(java.util.Arrays.copyOfRange(src, 5, 5 + length));
+
+            char[] chars = new char[Base64.encodedLength(length) + 3];
+            int written = Base64.encode(src, 5, length, chars, 3);
+            Assert.assertEquals(Base64.encodedLength(length), written);
+            Assert.assertEquals(expected, new String(chars, 3, written));
+
+            byte[] bytes = new byte[Base64.encodedLength(length) + 2];
+            written = Base64.encode(src, 5, length, bytes, 2);
+            Assert.assertEquals(expected, new String(bytes, 2, written, "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testSplitLinesMatchesLegacy() {
+        Random random = new Random(11);
+        for (int length = 0; length <= 400; length += 7) {
+            String s = randomString(random, length, false);
+            Assert.assertEquals(legacySplitLines(s), Base64.splitLines(s));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Offline tests for CoalescingTransport with a stub transport that blocks until released.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.transport.CoalescingTransport;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class CoalescingTransportTest {
+
+    private static final String CREATE = "http://127.0.0.1/session/create";
+
+    static class BlockingTransport implements TokBoxTransport {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean fail;
+
+        public String request(TokBoxRequest request) throws OpenTokException {
+            int n = calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (fail) {
+                throw new OpenTokRequestException("failed", 503);
+            }
+            return "response-" + n;
+        }
+    }
+
+    private static TokBoxRequest request(String url, String... params) {
+        Map<String, String> p = new LinkedHashMap<String, String>();
+        for (int i = 0; i < params.length; i += 2) {
+            p.put(params[i], params[i + 1]);
+        }
+        return new TokBoxRequest(url, p, Collections.singletonMap("X-TB-PARTNER-AUTH", "1:s"));
+    }
+
+    private static List<Future<String>> send(ExecutorService clients, final TokBoxTransport transport, List<TokBoxRequest> requests) {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final TokBoxRequest r : requests) {
+            results.add(clients.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return transport.request(r);
+                }
+            }));
+        }
+        return results;
+    }
+
+    private static void awaitCalls(BlockingTransport stub, CoalescingTransport transport, int calls, int requests) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((stub.calls.get() < calls || transport.getRequests() < requests) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // give the remaining callers time to join an in-flight call
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneCall() throws Exception {
+        BlockingTransport stub = new BlockingTransport();
+        CoalescingTransport transport = new CoalescingTransport(stub, "/session/create");
+        ExecutorService clients = Executors.newFixedThreadPool(20);
+        List<TokBoxRequest> requests = new ArrayList<TokBoxRequest>();
+        for (int i = 0; i < 20; i++) {
+            // Same params in different insertion order
+            requests.add(i % 2 == 0 ? request(CREATE, "location", "10.0.0.1", "p2p.preference", "enabled")
+                    : request(CREATE, "p2p.preference", "enabled", "location", "10.0.0.1"));
+        }
+        List<Future<String>> results = send(clients, transport, requests);
+        awaitCalls(stub, transport, 1, 20);
+        stub.release.countDown();
+        for (Future<String> f : results) {
+            Assert.assertEquals("response-1", f.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, stub.calls.get());
+        Assert.assertEquals(19, transport.getCoalesced());
+        // Nothing is cached once the call is done
+        Assert.assertEquals("response-2", transport.request(requests.get(0)));
+        clients.shutdown();
+    }
+
+    @Test
+    public void testDifferentParamsAndEndpointsAreNotCoalesced() throws Exception {
+        BlockingTransport stub = new BlockingTransport();
+        CoalescingTransport transport = new CoalescingTransport(stub, "/session/create");
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        List<TokBoxRequest> requests = Arrays.asList(
+                request(CREATE, "location", "10.0.0.1"),
+                request(CREATE, "location", "10.0.0.2"),
+                request("http://127.0.0.1/token/validate"),
+                request("http://127.0.0.1/token/validate"));
+        List<Future<String>> results = send(clients, transport, requests);
+        awaitCalls(stub, transport, 4, 4);
+        stub.release.countDown();
+        Set<String> responses = new HashSet<String>();
+        for (Future<String> f : results) {
+            responses.add(f.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(4, responses.size());
+        Assert.assertEquals(0, transport.getCoalesced());
+        clients.shutdown();
+    }
+
+    @Test
+    public void testFailureIsSharedWithWaiters() throws Exception {
+        BlockingTransport stub = new BlockingTransport();
+        stub.fail = true;
+        CoalescingTransport transport = new CoalescingTransport(stub, "/session/create");
+        ExecutorService clients = Executors.newFixedThreadPool(5);
+        List<TokBoxRequest> requests = new ArrayList<TokBoxRequest>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(request(CREATE, "location", "10.0.0.1"));
+        }
+        List<Future<String>> results = send(clients, transport, requests);
+        awaitCalls(stub, transport, 1, 5);
+        stub.release.countDown();
+        for (Future<String> f : results) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertEquals(503, ((OpenTokRequestException) e.getCause()).getStatusCode());
+            }
+        }
+        Assert.assertEquals(1, stub.calls.get());
+        clients.shutdown();
+    }
+
+    @Test
+    public void testWaiterBoundedByItsDeadline() throws Exception {
+        BlockingTransport stub = new BlockingTransport();
+        CoalescingTransport transport = new CoalescingTransport(stub, "/session/create");
+        ExecutorService clients = Executors.newFixedThreadPool(1);
+        List<Future<String>> results = send(clients, transport, Collections.singletonList(request(CREATE, "location", "10.0.0.1")));
+        awaitCalls(stub, transport, 1, 1);
+        TokBoxRequest waiter = request(CREATE, "location", "10.0.0.1").withDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+        long start = System.nanoTime();
+        try {
+            transport.request(waiter);
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertTrue(e.isClientSide());
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("waited " + elapsed + " ms", elapsed >= 90 && elapsed < 2000);
+        Assert.assertEquals(1, transport.getCoalesced());
+        // The shared call itself is unaffected
+        stub.release.countDown();
+        Assert.assertEquals("response-1", results.get(0).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, stub.calls.get());
+        clients.shutdown();
+    }
+}
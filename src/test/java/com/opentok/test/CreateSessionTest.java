@@ -0,0 +1,165 @@
+/*
+ * Offline tests for session creation. The SDK's do_request_raw is stubbed so no API access is needed.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.BulkSessionResult;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.OpenTokSession;
+import com.opentok.api.SessionSpec;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class CreateSessionTest {
+
+    static class StubSDK extends OpenTokSDK {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile boolean fail;
+
+        StubSDK() {
+            super(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+        }
+
+        @Override
+        protected String do_request_raw(String url, Map<String, String> params) throws OpenTokException {
+            int n = calls.incrementAndGet();
+            if (fail) {
+                return "<Errors><error code=\"403\"/></Errors>";
+            }
+            return "<sessions><Session><session_id>session-" + n + "-" + params.get("location")
+                    + "</session_id></Session></sessions>";
+        }
+
+        /** Decodes pre-encoded bodies so both request paths end up in the Map version. */
+        @Override
+        protected String do_request_raw(String url, byte[] body) throws OpenTokException {
+            return do_request_raw(url, decode(body));
+        }
+
+        static Map<String, String> decode(byte[] body) {
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            try {
+                for (String pair : new String(body, "UTF-8").split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                    }
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            return params;
+        }
+    }
+
+    @Test
+    public void testCreateSessionAsync() throws Exception {
+        StubSDK sdk = new StubSDK();
+        OpenTokSession session = sdk.create_session_async("10.0.0.1").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("session-1-10.0.0.1", session.getSessionId());
+    }
+
+    @Test
+    public void testCreateSessionAsyncCustomExecutor() throws Exception {
+        StubSDK sdk = new StubSDK();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            sdk.setAsyncExecutor(executor);
+            List<CompletableFuture<OpenTokSession>> futures = new ArrayList<CompletableFuture<OpenTokSession>>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(sdk.create_session_async());
+            }
+            Set<String> ids = new HashSet<String>();
+            for (CompletableFuture<OpenTokSession> f : futures) {
+                ids.add(f.get(5, TimeUnit.SECONDS).getSessionId());
+            }
+            Assert.assertEquals(50, ids.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreateSessionAsyncFailure() throws Exception {
+        StubSDK sdk = new StubSDK();
+        sdk.fail = true;
+        try {
+            sdk.create_session_async("10.0.0.1").get(5, TimeUnit.SECONDS);
+            Assert.fail("expected failure");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof OpenTokException);
+        }
+    }
+
+    /** Fails for location "bad" and tracks how many requests are in flight at once. */
+    static class SlowStubSDK extends StubSDK {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        protected String do_request_raw(String url, Map<String, String> params) throws OpenTokException {
+            int now = inFlight.incrementAndGet();
+            try {
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), now));
+                }
+                Thread.sleep(5);
+                if ("bad".equals(params.get("location"))) {
+                    return "<Errors><error code=\"400\"/></Errors>";
+                }
+                return super.do_request_raw(url, params);
+            } catch (InterruptedException e) {
+                throw new OpenTokException("interrupted");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testCreateSessionsKeepsOrderAndFailures() throws Exception {
+        SlowStubSDK sdk = new SlowStubSDK();
+        SessionProperties sp = new SessionProperties();
+        sp.p2p_preference = "enabled";
+        List<SessionSpec> specs = new ArrayList<SessionSpec>();
+        for (int i = 0; i < 200; i++) {
+            specs.add(i % 50 == 7 ? new SessionSpec("bad") : new SessionSpec("10.0.0." + i, sp));
+        }
+        BulkSessionResult result = sdk.create_sessions(specs, 8);
+        Assert.assertEquals(196, result.getSucceeded());
+        Assert.assertEquals(4, result.getFailed());
+        Assert.assertEquals(Arrays.asList(7, 57, 107, 157), new ArrayList<Integer>(result.getFailures().keySet()));
+        for (int i = 0; i < 200; i++) {
+            if (i % 50 == 7) {
+                Assert.assertNull(result.getSession(i));
+            } else {
+                Assert.assertTrue(result.getSession(i).getSessionId().endsWith("-10.0.0." + i));
+            }
+        }
+        Assert.assertTrue("in flight " + sdk.maxInFlight.get(), sdk.maxInFlight.get() <= 8);
+        Assert.assertTrue(result.getThroughput() > 0);
+    }
+
+    @Test
+    public void testCreateSessionsConcurrencyIsUsed() throws Exception {
+        SlowStubSDK sdk = new SlowStubSDK();
+        List<SessionSpec> specs = new ArrayList<SessionSpec>();
+        for (int i = 0; i < 400; i++) {
+            specs.add(new SessionSpec());
+        }
+        BulkSessionResult result = sdk.create_sessions(specs, 40);
+        Assert.assertTrue(result.isComplete());
+        Assert.assertTrue("in flight " + sdk.maxInFlight.get(), sdk.maxInFlight.get() > 1 && sdk.maxInFlight.get() <= 40);
+        // 400 calls of 5ms each take 2s one at a time
+        Assert.assertTrue(result.toString(), result.getElapsedNanos() < TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Offline tests for com.opentok.util.FormEncoder.
+ * The body must stay byte-identical to the URLEncoder-based encoding the transports used before,
+ * which is kept below as the reference.
+ */
+
+package com.opentok.test;
+
+import com.opentok.util.FormEncoder;
+import java.net.URLEncoder;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class FormEncoderTest {
+
+    // Original encoding from TokBoxNetConnection, kept as the reference output.
+    private static String legacyEncode(Map<String, String> paramList) throws Exception {
+        StringBuilder dataString = new StringBuilder();
+        for (Iterator<String> i = paramList.keySet().iterator(); i.hasNext(); ) {
+            String key = i.next();
+            String value = paramList.get(key);
+            if (null != value) {
+                value = URLEncoder.encode(paramList.get(key), "UTF-8").replaceAll("\\+", "%20");
+                dataString.append(URLEncoder.encode(key, "UTF-8")).append("=").append(value).append("&");
+            }
+        }
+        return dataString.toString();
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int n = random.nextInt(16);
+        for (int i = 0; i < n; i++) {
+            switch (random.nextInt(6)) {
+            case 0:
+                sb.append((char) random.nextInt(128));
+                break;
+            case 1:
+                sb.append((char) (0x80 + random.nextInt(0x780)));
+                break;
+            case 2:
+                sb.append((char) (0x800 + random.nextInt(0xd000)));
+                break;
+            case 3:
+                // includes unpaired surrogates
+                sb.append((char) (0xd800 + random.nextInt(0x800)));
+                break;
+            case 4:
+                sb.appendCodePoint(0x1f600 + random.nextInt(64));
+                break;
+            default:
+                sb.append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testMatchesLegacyEncoding() throws Exception {
+        Random random = new Random(42);
+        for (int t = 0; t < 5000; t++) {
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            params.put(randomString(random), randomString(random));
+            params.put("skipped", null);
+            params.put("location", "a b+c&d=e");
+            Assert.assertEquals(legacyEncode(params), new String(FormEncoder.encode(params), "ISO-8859-1"));
+        }
+    }
+
+    @Test
+    public void testSessionParams() throws Exception {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("p2p.preference", "enabled");
+        params.put("location", "216.38.134.114");
+        Assert.assertEquals("p2p.preference=enabled&location=216.38.134.114&", new String(FormEncoder.encode(params), "ISO-8859-1"));
+        Assert.assertEquals(0, FormEncoder.encode(new HashMap<String, String>()).length);
+        Assert.assertEquals(0, FormEncoder.encode(null).length);
+    }
+}
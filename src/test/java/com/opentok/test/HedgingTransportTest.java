@@ -0,0 +1,197 @@
+/*
+ * Offline tests for HedgingTransport against an embedded HTTP server on localhost that
+ * delays selected requests.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.transport.HedgingTransport;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HedgingTransportTest {
+
+    private HttpServer server;
+    private PooledTokBoxTransport pool;
+    private final AtomicInteger received = new AtomicInteger();
+    /** Request numbers (1-based) that the server answers slowly. */
+    private final Set<Integer> slow = Collections.synchronizedSet(new HashSet<Integer>());
+    private volatile long slowMillis = 1000;
+    private String apiUrl;
+
+    @BeforeClass
+    public static void disableNagle() {
+        // Otherwise the JDK server delays small responses on kept-alive connections by ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/session/create", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int n = received.incrementAndGet();
+                try {
+                    InputStream in = exchange.getRequestBody();
+                    while (in.read() != -1) {
+                    }
+                    if (slow.contains(n)) {
+                        Thread.sleep(slowMillis);
+                    }
+                    byte[] body = ("<sessions><Session><session_id>s" + n
+                            + "</session_id></Session></sessions>").getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        pool = new PooledTokBoxTransport();
+    }
+
+    @After
+    public void stopServer() {
+        pool.close();
+        server.stop(0);
+    }
+
+    private OpenTokSDK sdk(HedgingTransport transport) {
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        sdk.setTransport(transport);
+        return sdk;
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        // Warm the pool first: on a cold connection the primary could reach the server after the
+        // hedge and be the one answered fast
+        OpenTokSDK direct = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        direct.setTransport(pool);
+        Assert.assertEquals("s1", direct.create_session().getSessionId());
+        HedgingTransport transport = new HedgingTransport(pool, 50);
+        OpenTokSDK sdk = sdk(transport);
+        slow.add(2);
+        long start = System.nanoTime();
+        String id = sdk.create_session().getSessionId();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals("s3", id);
+        Assert.assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 800);
+        Assert.assertEquals(1, transport.getHedgesSent());
+        Assert.assertEquals(1, transport.getHedgesWon());
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws Exception {
+        HedgingTransport transport = new HedgingTransport(pool, 500);
+        OpenTokSDK sdk = sdk(transport);
+        for (int i = 1; i <= 10; i++) {
+            Assert.assertEquals("s" + i, sdk.create_session().getSessionId());
+        }
+        Assert.assertEquals(10, received.get());
+        Assert.assertEquals(0, transport.getHedgesSent());
+    }
+
+    @Test
+    public void testBudgetCapsHedges() throws Exception {
+        slowMillis = 30;
+        HedgingTransport transport = new HedgingTransport(pool, 5, 0, 0.1);
+        OpenTokSDK sdk = sdk(transport);
+        // Every original request is slow; hedges are answered immediately
+        for (int i = 1; i <= 100; i++) {
+            slow.add(received.get() + 1);
+            sdk.create_session();
+        }
+        Assert.assertEquals(100, transport.getRequests());
+        // One hedge is available up front, then one per ten requests
+        Assert.assertTrue("sent " + transport.getHedgesSent(), transport.getHedgesSent() <= 11);
+        Assert.assertTrue("sent " + transport.getHedgesSent(), transport.getHedgesSent() >= 9);
+        Assert.assertEquals(100 - transport.getHedgesSent(), transport.getHedgesDenied());
+    }
+
+    @Test
+    public void testNoBudgetNeverHedges() throws Exception {
+        HedgingTransport transport = new HedgingTransport(pool, 10, 0, 0);
+        OpenTokSDK sdk = sdk(transport);
+        slowMillis = 100;
+        // The first request and its hedge, then the second request
+        slow.add(1);
+        slow.add(2);
+        slow.add(3);
+        sdk.create_session();
+        sdk.create_session();
+        // The single hedge available up front is used by the first request
+        Assert.assertEquals(1, transport.getHedgesSent());
+        Assert.assertEquals(1, transport.getHedgesDenied());
+    }
+
+    @Test
+    public void testAdaptiveDelayFollowsLatency() throws Exception {
+        HedgingTransport transport = new HedgingTransport(pool, 1, 0.9, 0.1);
+        OpenTokSDK sdk = sdk(transport);
+        for (int i = 0; i < 64; i++) {
+            sdk.create_session();
+        }
+        long warm = transport.getHedgeDelayMillis();
+        Assert.assertTrue("delay " + warm, warm < 200);
+        slowMillis = 100;
+        // Make the next 32 requests slow on both attempts, so the p90 climbs to about 100ms
+        for (int i = 0; i < 100; i++) {
+            slow.add(received.get() + 1 + i);
+        }
+        for (int i = 0; i < 32; i++) {
+            sdk.create_session();
+        }
+        Assert.assertTrue("delay " + transport.getHedgeDelayMillis(), transport.getHedgeDelayMillis() >= 90);
+    }
+
+    @Test
+    public void testFailedAttemptFallsBackToOther() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        HedgingTransport transport = new HedgingTransport(new TokBoxTransport() {
+            public String request(TokBoxRequest request) throws OpenTokException {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new OpenTokRequestException("boom", 500);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "<sessions><Session><session_id>ok</session_id></Session></sessions>";
+            }
+        }, 20);
+        Assert.assertEquals("ok", sdk(transport).create_session().getSessionId());
+        Assert.assertEquals(1, transport.getHedgesWon());
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Tests for LimitingTransport, with a stub delegate and against a throttling StandInServer.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.transport.LimitingTransport;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRejectedException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import com.opentok.metrics.Operation;
+import com.opentok.metrics.Outcome;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class LimitingTransportTest {
+
+    /** Answers after sleepMillis and tracks how many requests are in flight at once. */
+    static class StubTransport implements TokBoxTransport {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        volatile long sleepMillis;
+        volatile int failWithStatus;
+
+        public String request(TokBoxRequest request) throws OpenTokException {
+            int now = inFlight.incrementAndGet();
+            requests.incrementAndGet();
+            try {
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), now));
+                }
+                if (sleepMillis > 0) {
+                    Thread.sleep(sleepMillis);
+                }
+                if (failWithStatus != 0) {
+                    throw new OpenTokRequestException("failed", failWithStatus);
+                }
+                return "ok";
+            } catch (InterruptedException e) {
+                throw new OpenTokRequestException("interrupted");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static TokBoxRequest request(int apiKey) {
+        return new TokBoxRequest("http://localhost/session/create", new HashMap<String, String>(),
+                Collections.singletonMap("X-TB-PARTNER-AUTH", apiKey + ":secret"));
+    }
+
+    @Test
+    public void testRatePerApiKey() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(stub, 100, 5, 10);
+        long start = System.nanoTime();
+        // 5 at once from the burst, then one every 10ms
+        for (int i = 0; i < 25; i++) {
+            limiter.request(request(1));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 180);
+
+        // Another api_key has its own full bucket
+        start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.request(request(2));
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 50);
+        Assert.assertEquals(30, stub.requests.get());
+        Assert.assertEquals(0, limiter.getRejected());
+    }
+
+    @Test
+    public void testRejectedWhenRateWaitExceedsDeadline() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(stub, 10, 1, 10, 50, 0);
+        limiter.request(request(1));
+        long start = System.nanoTime();
+        try {
+            // The next permit is 100ms away, beyond the 50ms deadline
+            limiter.request(request(1));
+            Assert.fail();
+        } catch (OpenTokRejectedException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("rate limit"));
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 40);
+        Assert.assertEquals(1, stub.requests.get());
+        Assert.assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void testRequestDeadlineBoundsTheWait() throws Exception {
+        StubTransport stub = new StubTransport();
+        // Waits of up to 1s are allowed, but the requests below only have 30ms left
+        LimitingTransport limiter = new LimitingTransport(stub, 5, 1, 10, 1000, 0);
+        limiter.request(request(1));
+        long start = System.nanoTime();
+        try {
+            // The next permit is 200ms away
+            limiter.request(request(1).withDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(30)));
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertTrue(e.isClientSide());
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+        Assert.assertEquals(0, limiter.getRejected());
+
+        final StubTransport slow = new StubTransport();
+        slow.sleepMillis = 300;
+        final LimitingTransport single = new LimitingTransport(slow, 0, 1, 1, 1000, 0);
+        Thread holder = new Thread() {
+            public void run() {
+                try {
+                    single.request(request(1));
+                } catch (OpenTokException ignored) {
+                }
+            }
+        };
+        holder.start();
+        while (slow.inFlight.get() == 0) {
+            Thread.sleep(1);
+        }
+        start = System.nanoTime();
+        try {
+            single.request(request(1).withDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50)));
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertTrue(e.isClientSide());
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("waited " + waited, waited >= 40 && waited < 250);
+        Assert.assertEquals(0, single.getRejected());
+        holder.join();
+    }
+
+    @Test
+    public void testConcurrencyLimitAndQueueDeadline() throws Exception {
+        final StubTransport stub = new StubTransport();
+        stub.sleepMillis = 50;
+        final LimitingTransport limiter = new LimitingTransport(stub, 0, 1, 3, 120, 0);
+        ExecutorService clients = Executors.newFixedThreadPool(12);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 12; i++) {
+            results.add(clients.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return limiter.request(request(1));
+                }
+            }));
+        }
+        int ok = 0;
+        int rejected = 0;
+        for (Future<String> f : results) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                ok++;
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof OpenTokRejectedException);
+                rejected++;
+            }
+        }
+        clients.shutdown();
+        Assert.assertTrue("in flight " + stub.maxInFlight.get(), stub.maxInFlight.get() <= 3);
+        // 3 slots of 50ms within a 120ms deadline let 6 to 9 requests through
+        Assert.assertTrue("ok " + ok, ok >= 6 && ok <= 9);
+        Assert.assertEquals(12 - ok, rejected);
+        Assert.assertEquals(rejected, limiter.getRejected());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitShrinksOnThrottleAndRecovers() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(stub, 0, 1, 50, 1000, 0);
+        Assert.assertEquals(LimitingTransport.DEFAULT_INITIAL_LIMIT, limiter.getLimit());
+        stub.failWithStatus = 429;
+        for (int i = 0; i < 30; i++) {
+            try {
+                limiter.request(request(1));
+                Assert.fail();
+            } catch (OpenTokRequestException e) {
+                Assert.assertEquals(429, e.getStatusCode());
+            }
+        }
+        Assert.assertEquals(30, limiter.getThrottled());
+        Assert.assertTrue("decreases " + limiter.getDecreases(), limiter.getDecreases() >= 2);
+        int low = limiter.getLimit();
+        Assert.assertTrue("limit " + low, low < LimitingTransport.DEFAULT_INITIAL_LIMIT);
+
+        // Errors that are the caller's fault don't shrink the limit
+        stub.failWithStatus = 403;
+        long decreases = limiter.getDecreases();
+        for (int i = 0; i < 10; i++) {
+            try {
+                limiter.request(request(1));
+            } catch (OpenTokRequestException expected) {
+            }
+        }
+        Assert.assertEquals(decreases, limiter.getDecreases());
+
+        stub.failWithStatus = 0;
+        for (int i = 0; i < 500; i++) {
+            limiter.request(request(1));
+        }
+        Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > low);
+    }
+
+    @Test
+    public void testClientSideFailuresDoNotShrinkLimit() throws Exception {
+        final OpenTokRequestException[] failure = new OpenTokRequestException[1];
+        TokBoxTransport failing = new TokBoxTransport() {
+            public String request(TokBoxRequest request) throws OpenTokException {
+                throw failure[0];
+            }
+        };
+        LimitingTransport limiter = new LimitingTransport(failing, 0, 1, 50, 1000, 0);
+        OpenTokRequestException[] notOverload = {
+            new OpenTokRejectedException("rejected by an inner limiter"),
+            new OpenTokTimeoutException("timed out waiting for a connection", true),
+        };
+        for (OpenTokRequestException e : notOverload) {
+            failure[0] = e;
+            for (int i = 0; i < 20; i++) {
+                try {
+                    limiter.request(request(1));
+                    Assert.fail();
+                } catch (OpenTokRequestException expected) {
+                }
+            }
+        }
+        Assert.assertEquals(0, limiter.getDecreases());
+        Assert.assertEquals(LimitingTransport.DEFAULT_INITIAL_LIMIT, limiter.getLimit());
+
+        // An interrupted caller isn't the API's fault either
+        failure[0] = new OpenTokRequestException("Interrupted while waiting");
+        Thread.currentThread().interrupt();
+        try {
+            limiter.request(request(1));
+            Assert.fail();
+        } catch (OpenTokRequestException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        Assert.assertEquals(0, limiter.getDecreases());
+
+        // A request that got no answer still counts as overload
+        failure[0] = new OpenTokTimeoutException("timed out");
+        try {
+            limiter.request(request(1));
+            Assert.fail();
+        } catch (OpenTokRequestException expected) {
+        }
+        Assert.assertEquals(1, limiter.getDecreases());
+    }
+
+    @Test
+    public void testLimitShrinksOnLatency() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(stub, 0, 1, 50, 1000, 2.0);
+        stub.sleepMillis = 2;
+        for (int i = 0; i < 20; i++) {
+            limiter.request(request(1));
+        }
+        int before = limiter.getLimit();
+        stub.sleepMillis = 20;
+        for (int i = 0; i < 20; i++) {
+            limiter.request(request(1));
+        }
+        Assert.assertTrue(limiter.getDecreases() > 0);
+        Assert.assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < before);
+    }
+
+    @Test
+    public void testStandInThrottleDegradesGracefully() throws Exception {
+        StandInServer server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        PooledTokBoxTransport pool = new PooledTokBoxTransport();
+        try {
+            server.setThrottle(50);
+            server.setLatency(1, 2);
+            OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+            // A client-side cap just under the server's limit
+            LimitingTransport limiter = new LimitingTransport(pool, 40, 5, 20, 100, 0);
+            sdk.setTransport(limiter);
+            LoadDriver.Report report = new LoadDriver(sdk, LoadDriver.CREATE_SESSION).run(200, 1000, 32);
+            // The excess is turned away locally instead of being throttled by the server
+            Assert.assertTrue("throttled " + server.getThrottled(), server.getThrottled() <= 5);
+            Assert.assertTrue(report.toString(), report.succeeded >= 30 && report.succeeded <= 60);
+            Assert.assertEquals(report.failed, limiter.getRejected() + server.getThrottled());
+            Assert.assertEquals(limiter.getRejected(), sdk.getMetrics().snapshot().getCount(Operation.CREATE_SESSION, Outcome.REJECTED));
+        } finally {
+            pool.close();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Open-loop load generator for OpenTokSDK.
+ *
+ * Calls are started on a fixed schedule at the target rate, whether or not earlier calls have
+ * finished, and latency is measured from each call's scheduled start. A slow server therefore
+ * shows up as queueing in the percentiles instead of as a silently lower request rate.
+ *
+ * Run standalone against an embedded StandInServer:
+ *   java -cp target/classes:target/test-classes com.opentok.test.LoadDriver [rate] [seconds] [concurrency] [latencyMillis]
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.exception.OpenTokException;
+import com.opentok.metrics.LatencyHistogram;
+import com.opentok.util.AsyncExecutors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadDriver {
+
+    /** One unit of work issued at each scheduled start. */
+    public interface Call {
+        void run(OpenTokSDK sdk) throws OpenTokException;
+    }
+
+    public static final Call CREATE_SESSION = new Call() {
+        public void run(OpenTokSDK sdk) throws OpenTokException {
+            sdk.create_session();
+        }
+    };
+
+    public static final Call CREATE_SESSION_AND_TOKEN = new Call() {
+        public void run(OpenTokSDK sdk) throws OpenTokException {
+            sdk.generate_token(sdk.create_session().getSessionId());
+        }
+    };
+
+    public static class Report {
+        public final long sent;
+        public final long succeeded;
+        public final long failed;
+        public final long elapsedNanos;
+        public final LatencyHistogram.Snapshot latency;
+
+        Report(long sent, long succeeded, long failed, long elapsedNanos, LatencyHistogram.Snapshot latency) {
+            this.sent = sent;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        /** Successful calls per second. */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : succeeded * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d ok=%d failed=%d throughput=%.1f/s p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                    sent, succeeded, failed, getThroughput(),
+                    latency.getPercentileNanos(0.5) / 1e6, latency.getPercentileNanos(0.9) / 1e6,
+                    latency.getPercentileNanos(0.99) / 1e6, latency.getMaxNanos() / 1e6);
+        }
+    }
+
+    private final OpenTokSDK sdk;
+    private final Call call;
+
+    public LoadDriver(OpenTokSDK sdk, Call call) {
+        this.sdk = sdk;
+        this.call = call;
+    }
+
+    /**
+     * Issues requestsPerSecond calls per second for durationMillis, with at most concurrency
+     * calls in flight, and waits for all of them to finish. Latency percentiles cover successful
+     * calls only.
+     */
+    public Report run(int requestsPerSecond, long durationMillis, int concurrency) throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, AsyncExecutors.daemonThreadFactory("opentok-load"));
+
+        long periodNanos = 1000000000L / requestsPerSecond;
+        long total = requestsPerSecond * durationMillis / 1000;
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            final long scheduled = start + i * periodNanos;
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        call.run(sdk);
+                        latency.record(System.nanoTime() - scheduled);
+                        succeeded.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return new Report(total, succeeded.get(), failed.get(), System.nanoTime() - start, latency.snapshot());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long latencyMillis = args.length > 3 ? Long.parseLong(args[3]) : 5;
+
+        StandInServer server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        server.setLatency(latencyMillis, latencyMillis * 2);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+            // Short warm-up so class loading and connection setup stay out of the numbers
+            new LoadDriver(sdk, CREATE_SESSION_AND_TOKEN).run(Math.min(rate, 100), 1000, concurrency);
+            Report report = new LoadDriver(sdk, CREATE_SESSION_AND_TOKEN).run(rate, seconds * 1000L, concurrency);
+            System.out.println(report);
+            System.out.println(sdk.getMetrics().snapshot());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Offline tests for the SDK metrics.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokParseException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import com.opentok.exception.OpenTokValidationException;
+import com.opentok.metrics.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    static class ScriptedSDK extends OpenTokSDK {
+        final Queue<String> responses = new LinkedList<String>();
+
+        ScriptedSDK() {
+            super(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+        }
+
+        @Override
+        protected String do_request_raw(String url, Map<String, String> params) throws OpenTokException {
+            return responses.remove();
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * 10000L);
+        }
+        LatencyHistogram.Snapshot s = h.snapshot();
+        Assert.assertEquals(100, s.getCount());
+        Assert.assertEquals(1000000L, s.getMaxNanos());
+        Assert.assertEquals(505000L, s.getMeanNanos());
+        // 500us falls in the (262us, 524us] bucket
+        Assert.assertEquals(1024L << 9, s.getPercentileNanos(0.5));
+        Assert.assertEquals(1000000L, s.getPercentileNanos(0.99));
+        long total = 0;
+        for (long c : s.getBucketCounts()) {
+            total += c;
+        }
+        Assert.assertEquals(100, total);
+    }
+
+    @Test
+    public void testGenerateTokenOutcomes() throws Exception {
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        for (int i = 0; i < 5; i++) {
+            sdk.generate_token(session, RoleConstants.SUBSCRIBER);
+        }
+        try {
+            sdk.generate_token(session, "asdfasdf");
+        } catch (OpenTokException expected) {
+        }
+        try {
+            sdk.generate_token("jkasjda2ndasd");
+        } catch (OpenTokException expected) {
+        }
+        MetricsSnapshot snapshot = sdk.getMetrics().snapshot();
+        Assert.assertEquals(5, snapshot.getCount(Operation.GENERATE_TOKEN, Outcome.SUCCESS));
+        Assert.assertEquals(2, snapshot.getCount(Operation.GENERATE_TOKEN, Outcome.VALIDATION_ERROR));
+        Assert.assertEquals(7, snapshot.getCount(Operation.GENERATE_TOKEN));
+        Assert.assertTrue(snapshot.getLatency(Operation.GENERATE_TOKEN).getMaxNanos() > 0);
+    }
+
+    @Test
+    public void testCreateSessionOutcomesAndExporter() throws Exception {
+        ScriptedSDK sdk = new ScriptedSDK();
+        final AtomicInteger exported = new AtomicInteger();
+        sdk.getMetrics().setExporter(new MetricsExporter() {
+            public void record(Operation operation, Outcome outcome, long durationNanos) {
+                exported.incrementAndGet();
+            }
+        });
+        sdk.responses.add("<sessions><Session><session_id>abc</session_id></Session></sessions>");
+        sdk.responses.add("<Errors><error code=\"403\"/></Errors>");
+        sdk.responses.add("<sessions><Session>");
+        Assert.assertEquals("abc", sdk.create_session().getSessionId());
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokException expected) {
+        }
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokException expected) {
+        }
+        MetricsSnapshot snapshot = sdk.getMetrics().snapshot();
+        Assert.assertEquals(1, snapshot.getCount(Operation.CREATE_SESSION, Outcome.SUCCESS));
+        Assert.assertEquals(1, snapshot.getCount(Operation.CREATE_SESSION, Outcome.HTTP_ERROR));
+        Assert.assertEquals(1, snapshot.getCount(Operation.CREATE_SESSION, Outcome.PARSE_ERROR));
+        Assert.assertEquals(1, snapshot.getCount(Operation.XML_PARSE, Outcome.SUCCESS));
+        Assert.assertEquals(1, snapshot.getCount(Operation.XML_PARSE, Outcome.PARSE_ERROR));
+        // 3 create_session + 3 parse records
+        Assert.assertEquals(6, exported.get());
+        Assert.assertTrue(snapshot.toString().contains("CREATE_SESSION/SUCCESS count=1"));
+    }
+
+    @Test
+    public void testOutcomeClassification() {
+        Assert.assertEquals(Outcome.VALIDATION_ERROR, Outcome.of(new OpenTokValidationException("bad role")));
+        Assert.assertEquals(Outcome.HTTP_ERROR, Outcome.of(new OpenTokRequestException("failed", 500)));
+        Assert.assertEquals(Outcome.TIMEOUT, Outcome.of(new OpenTokTimeoutException("timed out")));
+        Assert.assertEquals(Outcome.PARSE_ERROR, Outcome.of(new OpenTokParseException("bad xml")));
+        // Failures that are not about the caller's arguments
+        Assert.assertEquals(Outcome.OTHER_ERROR, Outcome.of(new OpenTokException("Transport is closed")));
+    }
+
+    @Test
+    public void testClosedTransportIsNotAValidationError() throws Exception {
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, "http://127.0.0.1:9");
+        PooledTokBoxTransport transport = new PooledTokBoxTransport();
+        transport.close();
+        sdk.setTransport(transport);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertEquals("Transport is closed", e.getMessage());
+        }
+        MetricsSnapshot snapshot = sdk.getMetrics().snapshot();
+        Assert.assertEquals(1, snapshot.getCount(Operation.CREATE_SESSION, Outcome.OTHER_ERROR));
+        Assert.assertEquals(0, snapshot.getCount(Operation.CREATE_SESSION, Outcome.VALIDATION_ERROR));
+    }
+}
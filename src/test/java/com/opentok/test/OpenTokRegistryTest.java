@@ -0,0 +1,104 @@
+/*
+ * Offline tests for OpenTokRegistry, using an embedded StandInServer.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokRegistry;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenClaims;
+import com.opentok.api.TokenVerifier;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.AsyncExecutors;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class OpenTokRegistryTest {
+
+    private static String secret(int i) {
+        return String.format("%040x", 0x1234567L * (i + 1));
+    }
+
+    @Test
+    public void testTokensSignedPerTenant() throws Exception {
+        OpenTokRegistry registry = new OpenTokRegistry();
+        try {
+            for (int i = 0; i < 200; i++) {
+                registry.register(10000 + i, secret(i));
+            }
+            Assert.assertEquals(200, registry.size());
+            for (int i = 0; i < 200; i += 17) {
+                int apiKey = 10000 + i;
+                OpenTokSDK tenant = registry.tenant(apiKey);
+                Assert.assertSame(tenant, registry.get(apiKey));
+                String token = tenant.generate_token(TokenGenerationTest.sessionId(apiKey), RoleConstants.MODERATOR);
+                TokenClaims claims = new TokenVerifier(apiKey, secret(i)).verify(token);
+                Assert.assertEquals(RoleConstants.MODERATOR, claims.getRole());
+                Assert.assertFalse(new TokenVerifier(apiKey, secret(i + 1)).is_valid(token));
+            }
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testUnknownAndReplacedTenants() throws Exception {
+        OpenTokRegistry registry = new OpenTokRegistry();
+        try {
+            Assert.assertNull(registry.get(1));
+            try {
+                registry.tenant(1);
+                Assert.fail();
+            } catch (OpenTokException e) {
+                Assert.assertTrue(e.getMessage().contains("api_key 1"));
+            }
+            OpenTokSDK first = registry.register(1, secret(0));
+            // Registering again rotates the secret
+            OpenTokSDK second = registry.register(1, secret(1));
+            Assert.assertNotSame(first, second);
+            Assert.assertSame(second, registry.tenant(1));
+            String token = registry.tenant(1).generate_token(TokenGenerationTest.sessionId(1));
+            Assert.assertTrue(new TokenVerifier(1, secret(1)).is_valid(token));
+            Assert.assertEquals(Collections.singleton(1), registry.api_keys());
+            Assert.assertTrue(registry.unregister(1));
+            Assert.assertFalse(registry.unregister(1));
+            Assert.assertEquals(0, registry.size());
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void testTenantsShareTransport() throws Exception {
+        StandInServer server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        PooledTokBoxTransport transport = new PooledTokBoxTransport(2, 30000);
+        OpenTokRegistry registry = new OpenTokRegistry(server.getUrl(), transport, AsyncExecutors.defaultExecutor());
+        try {
+            OpenTokSDK tenant = registry.register(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+            OpenTokSDK wrong = registry.register(TokenGenerationTest.API_KEY + 1, TokenGenerationTest.API_SECRET);
+            for (int i = 0; i < 10; i++) {
+                tenant.create_session("10.0.0." + i);
+                try {
+                    wrong.create_session();
+                    Assert.fail();
+                } catch (OpenTokException e) {
+                }
+            }
+            String session = tenant.create_session_async().get().getSessionId();
+            Assert.assertTrue(tenant.verify_token(tenant.generate_token(session)).getSessionId().equals(session));
+            Assert.assertEquals(11, server.getSessionsCreated());
+            Assert.assertSame(transport, registry.getTransport());
+            // Both tenants' requests went through the one pool
+            Assert.assertTrue("opened " + transport.getConnectionsOpened(), transport.getConnectionsOpened() <= 2);
+            Assert.assertEquals(21, transport.getConnectionsOpened() + transport.getConnectionsReused());
+        } finally {
+            registry.close();
+            transport.close();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Offline tests for PooledTokBoxTransport against an embedded HTTP server on localhost.
+ * Sockets are counted on the server side by the client port of each exchange.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokBoxNetConnection;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.exception.OpenTokRequestException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledTransportTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger sessions = new AtomicInteger();
+    private String apiUrl;
+    private volatile String lastBody;
+    private volatile String lastContentLength;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/session/create", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = inFlight.incrementAndGet();
+                boolean counted = true;
+                try {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), now));
+                    }
+                    InputStream in = exchange.getRequestBody();
+                    while (in.read() != -1) {
+                    }
+                    Thread.sleep(5);
+                    byte[] body = ("<sessions><Session><session_id>s" + sessions.incrementAndGet()
+                            + "</session_id></Session></sessions>").getBytes("UTF-8");
+                    // Leave before answering, the client may send its next request as soon as it has the response
+                    inFlight.decrementAndGet();
+                    counted = false;
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (counted) {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            }
+        });
+        // Compresses the response when the client accepts gzip, and records what it was sent
+        server.createContext("/gzip/session/create", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                lastContentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                int c;
+                while ((c = in.read()) != -1) {
+                    request.write(c);
+                }
+                lastBody = request.toString("UTF-8");
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = ("<sessions><Session><session_id>gz" + sessions.incrementAndGet()
+                        + "</session_id></Session></sessions>").getBytes("UTF-8");
+                if (accept != null && accept.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream gz = new GZIPOutputStream(compressed);
+                    gz.write(body);
+                    gz.close();
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        apiUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSequentialRequestsReuseOneSocket() throws Exception {
+        PooledTokBoxTransport transport = new PooledTokBoxTransport();
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        sdk.setTransport(transport);
+        for (int i = 1; i <= 20; i++) {
+            Assert.assertEquals("s" + i, sdk.create_session("10.0.0.1").getSessionId());
+        }
+        Assert.assertEquals(1, transport.getConnectionsOpened());
+        Assert.assertEquals(19, transport.getConnectionsReused());
+        Assert.assertEquals(1, clientPorts.size());
+        transport.close();
+    }
+
+    @Test
+    public void testUnpooledConnectionOpensSocketPerRequest() throws Exception {
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        sdk.setTransport(new TokBoxNetConnection());
+        for (int i = 0; i < 5; i++) {
+            sdk.create_session();
+        }
+        Assert.assertEquals(5, clientPorts.size());
+    }
+
+    @Test
+    public void testConcurrentRequestsBoundedPerRoute() throws Exception {
+        final PooledTokBoxTransport transport = new PooledTokBoxTransport(2, 30000);
+        final OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        sdk.setTransport(transport);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 80; i++) {
+            results.add(clients.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return sdk.create_session().getSessionId();
+                }
+            }));
+        }
+        Set<String> ids = new HashSet<String>();
+        for (Future<String> f : results) {
+            ids.add(f.get(10, TimeUnit.SECONDS));
+        }
+        clients.shutdown();
+        Assert.assertEquals(80, ids.size());
+        Assert.assertTrue("in flight " + maxInFlight.get(), maxInFlight.get() <= 2);
+        Assert.assertTrue("sockets " + clientPorts.size(), clientPorts.size() <= 2);
+        Assert.assertEquals(clientPorts.size(), transport.getConnectionsOpened());
+        transport.close();
+    }
+
+    @Test
+    public void testIdleConnectionsEvicted() throws Exception {
+        PooledTokBoxTransport transport = new PooledTokBoxTransport(4, 100);
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl);
+        sdk.setTransport(transport);
+        sdk.create_session();
+        Assert.assertEquals(1, transport.getIdleConnections());
+        Thread.sleep(400);
+        Assert.assertEquals(0, transport.getIdleConnections());
+        sdk.create_session();
+        Assert.assertEquals(2, transport.getConnectionsOpened());
+        Assert.assertEquals(2, clientPorts.size());
+        transport.close();
+    }
+
+    private void assertGzipRoundTrip(OpenTokSDK sdk) throws Exception {
+        String location = "caf\u00e9 \u00fcber";
+        Assert.assertTrue(sdk.create_session(location).getSessionId().startsWith("gz"));
+        String expected = "location=caf%C3%A9%20%C3%BCber&";
+        Assert.assertEquals(expected, lastBody);
+        Assert.assertEquals(String.valueOf(expected.length()), lastContentLength);
+    }
+
+    @Test
+    public void testPooledGzipResponse() throws Exception {
+        PooledTokBoxTransport transport = new PooledTokBoxTransport();
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl + "/gzip");
+        sdk.setTransport(transport);
+        assertGzipRoundTrip(sdk);
+        assertGzipRoundTrip(sdk);
+        Assert.assertEquals(1, transport.getConnectionsOpened());
+        transport.close();
+    }
+
+    @Test
+    public void testUnpooledGzipResponse() throws Exception {
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, apiUrl + "/gzip");
+        sdk.setTransport(new TokBoxNetConnection());
+        assertGzipRoundTrip(sdk);
+    }
+
+    /** Answers one connection with the given raw response headers, after reading the request headers. */
+    private static String rawServer(final String head) throws IOException {
+        final ServerSocket listener = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Socket socket = listener.accept();
+                    InputStream in = socket.getInputStream();
+                    int c, last = 0, crlfs = 0;
+                    while (crlfs < 2 && (c = in.read()) != -1) {
+                        crlfs = c == '\n' ? (last == '\r' ? crlfs + 1 : crlfs) : (c == '\r' ? crlfs : 0);
+                        last = c;
+                    }
+                    socket.getOutputStream().write(head.getBytes("ISO-8859-1"));
+                    socket.getOutputStream().flush();
+                    Thread.sleep(200);
+                    socket.close();
+                    listener.close();
+                } catch (Exception e) {
+                    // the test sees the failure
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return "http://127.0.0.1:" + listener.getLocalPort();
+    }
+
+    @Test
+    public void testMalformedFramingIsARequestFailure() throws Exception {
+        String[] heads = {
+            "HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: -5\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+        };
+        assertFailures(heads, "Malformed");
+    }
+
+    @Test
+    public void testOversizedResponseIsARequestFailure() throws Exception {
+        // Rejected from the announced sizes, before any body is read
+        String[] heads = {
+            "HTTP/1.1 200 OK\r\nContent-Length: 99999999999\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: 5000000\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n500000\r\n",
+        };
+        assertFailures(heads, "exceeds");
+    }
+
+    private void assertFailures(String[] heads, String message) throws Exception {
+        for (String head : heads) {
+            PooledTokBoxTransport transport = new PooledTokBoxTransport();
+            OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, rawServer(head));
+            sdk.setTransport(transport);
+            try {
+                sdk.create_session();
+                Assert.fail(head);
+            } catch (OpenTokRequestException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultTransportUsesProxySelector() throws Exception {
+        final List<URI> selected = Collections.synchronizedList(new ArrayList<URI>());
+        final Proxy proxy = new Proxy(Proxy.Type.HTTP, server.getAddress());
+        ProxySelector previous = ProxySelector.getDefault();
+        ProxySelector.setDefault(new ProxySelector() {
+            public List<Proxy> select(URI uri) {
+                selected.add(uri);
+                return Collections.singletonList(proxy);
+            }
+
+            public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            }
+        });
+        try {
+            // Only reachable through the proxy, which is the embedded server
+            OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, "http://opentok.invalid");
+            Assert.assertNotNull(sdk.create_session().getSessionId());
+            Assert.assertEquals("opentok.invalid", selected.get(0).getHost());
+        } finally {
+            ProxySelector.setDefault(previous);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Tests for the RequestEventListener phases fired by OpenTokSDK and the transports,
+ * against a StandInServer on localhost.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokBoxNetConnection;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.RequestEventListener;
+import com.opentok.api.transport.RoutingTransport;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokParseException;
+import com.opentok.exception.OpenTokRequestException;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestEventListenerTest {
+
+    /** Records "phase" or "phase:detail" events with their timestamps. */
+    static class RecordingListener extends RequestEventListener {
+        final List<String> events = new ArrayList<String>();
+        final List<Long> times = new ArrayList<Long>();
+        final List<String> urls = new ArrayList<String>();
+
+        synchronized void add(String event, TokBoxRequest request, long nanoTime) {
+            events.add(event);
+            times.add(nanoTime);
+            if (request != null) {
+                urls.add(request.getUrl());
+            }
+        }
+
+        public void callStart(TokBoxRequest request, long nanoTime) {
+            add("callStart", request, nanoTime);
+        }
+
+        public void connectStart(TokBoxRequest request, long nanoTime) {
+            add("connectStart", request, nanoTime);
+        }
+
+        public void connectEnd(TokBoxRequest request, long nanoTime) {
+            add("connectEnd", request, nanoTime);
+        }
+
+        public void connectionAcquired(TokBoxRequest request, long nanoTime, boolean reused) {
+            add("connectionAcquired:" + reused, request, nanoTime);
+        }
+
+        public void requestWriteStart(TokBoxRequest request, long nanoTime) {
+            add("requestWriteStart", request, nanoTime);
+        }
+
+        public void requestWriteEnd(TokBoxRequest request, long nanoTime) {
+            add("requestWriteEnd", request, nanoTime);
+        }
+
+        public void responseStart(TokBoxRequest request, long nanoTime) {
+            add("responseStart", request, nanoTime);
+        }
+
+        public void responseHeadersEnd(TokBoxRequest request, long nanoTime, int status) {
+            add("responseHeadersEnd:" + status, request, nanoTime);
+        }
+
+        public void responseBodyEnd(TokBoxRequest request, long nanoTime, int length) {
+            add("responseBodyEnd:" + (length > 0), request, nanoTime);
+        }
+
+        public void callEnd(TokBoxRequest request, long nanoTime) {
+            add("callEnd", request, nanoTime);
+        }
+
+        public void callFailed(TokBoxRequest request, long nanoTime, OpenTokException e) {
+            add("callFailed", request, nanoTime);
+        }
+
+        public void parseStart(TokBoxRequest request, long nanoTime) {
+            add("parseStart", request, nanoTime);
+        }
+
+        public void parseEnd(TokBoxRequest request, long nanoTime) {
+            add("parseEnd", request, nanoTime);
+        }
+
+        synchronized void assertEvents(String... expected) {
+            Assert.assertEquals(Arrays.asList(expected), events);
+            for (int i = 1; i < times.size(); i++) {
+                Assert.assertTrue(events.get(i) + " before " + events.get(i - 1), times.get(i) >= times.get(i - 1));
+            }
+        }
+
+        synchronized void clear() {
+            events.clear();
+            times.clear();
+            urls.clear();
+        }
+    }
+
+    private StandInServer server;
+    private PooledTokBoxTransport pool;
+    private OpenTokSDK sdk;
+
+    @Before
+    public void start() throws Exception {
+        server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        pool = new PooledTokBoxTransport();
+        sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+        sdk.setTransport(pool);
+    }
+
+    @After
+    public void stop() {
+        pool.close();
+        server.stop();
+    }
+
+    @Test
+    public void testPooledPhases() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        sdk.setEventListener(listener);
+        sdk.create_session();
+        listener.assertEvents("callStart", "connectStart", "connectEnd", "connectionAcquired:false",
+                "requestWriteStart", "requestWriteEnd", "responseStart", "responseHeadersEnd:200",
+                "responseBodyEnd:true", "callEnd", "parseStart", "parseEnd");
+
+        // The second call reuses the pooled connection
+        listener.clear();
+        sdk.create_session();
+        listener.assertEvents("callStart", "connectionAcquired:true",
+                "requestWriteStart", "requestWriteEnd", "responseStart", "responseHeadersEnd:200",
+                "responseBodyEnd:true", "callEnd", "parseStart", "parseEnd");
+    }
+
+    @Test
+    public void testNetConnectionPhases() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        sdk.setEventListener(listener);
+        sdk.setTransport(new TokBoxNetConnection());
+        sdk.create_session();
+        listener.assertEvents("callStart", "connectStart", "connectEnd", "connectionAcquired:false",
+                "requestWriteStart", "requestWriteEnd", "responseStart", "responseHeadersEnd:200",
+                "responseBodyEnd:true", "callEnd", "parseStart", "parseEnd");
+    }
+
+    @Test
+    public void testFailedCall() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        sdk.setEventListener(listener);
+        server.setErrorRate(1.0);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokRequestException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+        }
+        listener.assertEvents("callStart", "connectStart", "connectEnd", "connectionAcquired:false",
+                "requestWriteStart", "requestWriteEnd", "responseStart", "responseHeadersEnd:500",
+                "responseBodyEnd:true", "callFailed");
+    }
+
+    @Test
+    public void testParseEndFollowsAFailedParse() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        sdk.setEventListener(listener);
+        sdk.setTransport(new TokBoxTransport() {
+            public String request(TokBoxRequest request) {
+                return "<Sessions><Session><session_id>";
+            }
+        });
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokParseException expected) {
+        }
+        listener.assertEvents("callStart", "callEnd", "parseStart", "parseEnd");
+        // Every phase reports the request the SDK sent
+        Assert.assertEquals(4, listener.urls.size());
+        Assert.assertEquals(Collections.nCopies(4, server.getUrl() + "/session/create"), listener.urls);
+    }
+
+    @Test
+    public void testRoutedRequestKeepsListener() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        OpenTokSDK elsewhere = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, "http://api.invalid");
+        elsewhere.setTransport(new RoutingTransport(pool, server.getUrl()));
+        elsewhere.setEventListener(listener);
+        elsewhere.create_session();
+        // The SDK reports the request it sent, the transport the copy routed to the endpoint
+        Assert.assertEquals("http://api.invalid/session/create", listener.urls.get(0));
+        Assert.assertEquals(server.getUrl() + "/session/create", listener.urls.get(1));
+        Assert.assertTrue(listener.events.contains("responseBodyEnd:true"));
+    }
+
+    @Test
+    public void testNoListener() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        sdk.setEventListener(listener);
+        sdk.setEventListener(null);
+        Assert.assertNull(sdk.getEventListener());
+        sdk.create_session();
+        Assert.assertTrue(listener.events.isEmpty());
+    }
+}
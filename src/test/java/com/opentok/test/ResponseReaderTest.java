@@ -0,0 +1,93 @@
+/*
+ * Offline tests for TokBoxResponseReader. Every lookup is checked against the DOM-based TokBoxXML.
+ */
+
+package com.opentok.test;
+
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.TokBoxResponseReader;
+import com.opentok.util.TokBoxXML;
+import java.io.ByteArrayInputStream;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ResponseReaderTest {
+
+    static final String SESSION_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<sessions><Session><session_id>1_MX4xMjM0NX4xMjcuMC4wLjF-fjAuMTIzfg</session_id>"
+            + "<partner_id>12345</partner_id><create_dt>Sat Oct 18 12:00:00 PDT 2026</create_dt></Session></sessions>\n";
+
+    static final String TOKEN_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Tokens><token><role>\n  publisher\n</role><expire_time>1792432078</expire_time>"
+            + "<connection_data>test &amp; <![CDATA[string]]></connection_data>"
+            + "<permissions><subscribe/><publish/><signal/></permissions>"
+            + "<p2p><preference>enabled</preference></p2p></token></Tokens>\n";
+
+    static final String ERROR_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<Errors><error code=\"403\"><authenticationError message=\"Invalid partner credentials\"/></error></Errors>\n";
+
+    private static void assertSameAsDom(String xml, String parent, String element) throws OpenTokException {
+        TokBoxXML dom = new TokBoxXML(xml);
+        String value = TokBoxResponseReader.read(xml, parent + "/" + element)[0];
+        Assert.assertEquals(parent + "/" + element, dom.hasElement(element, parent), value != null);
+        if (value != null) {
+            Assert.assertEquals(parent + "/" + element, dom.getElementValue(element, parent), value);
+        }
+    }
+
+    @Test
+    public void testMatchesDom() throws OpenTokException {
+        assertSameAsDom(SESSION_RESPONSE, "Session", "session_id");
+        assertSameAsDom(SESSION_RESPONSE, "Session", "create_dt");
+        assertSameAsDom(SESSION_RESPONSE, "Session", "missing");
+        assertSameAsDom(SESSION_RESPONSE, "Errors", "error");
+        String[] elements = { "role", "expire_time", "connection_data", "permissions", "invalid" };
+        for (String element : elements) {
+            assertSameAsDom(TOKEN_RESPONSE, "token", element);
+        }
+        String[] permissions = { "subscribe", "publish", "signal", "forceunpublish", "record" };
+        for (String permission : permissions) {
+            assertSameAsDom(TOKEN_RESPONSE, "permissions", permission);
+        }
+        assertSameAsDom(TOKEN_RESPONSE, "p2p", "preference");
+    }
+
+    @Test
+    public void testReadsAllPathsInOnePass() throws OpenTokException {
+        String[] values = TokBoxResponseReader.read(TOKEN_RESPONSE, "token/expire_time", "p2p/preference", "Errors/error", "permissions/publish");
+        Assert.assertEquals("1792432078", values[0]);
+        Assert.assertEquals("enabled", values[1]);
+        Assert.assertNull(values[2]);
+        Assert.assertEquals("", values[3]);
+    }
+
+    @Test
+    public void testReadsFromStream() throws Exception {
+        String[] values = TokBoxResponseReader.read(new ByteArrayInputStream(SESSION_RESPONSE.getBytes("UTF-8")), "Session/session_id");
+        Assert.assertEquals("1_MX4xMjM0NX4xMjcuMC4wLjF-fjAuMTIzfg", values[0]);
+    }
+
+    @Test
+    public void testErrorResponseRejected() {
+        OpenTokException expected = null;
+        try {
+            TokBoxResponseReader.read(ERROR_RESPONSE, "Session/session_id");
+        } catch (OpenTokException e) {
+            expected = e;
+        }
+        Assert.assertNotNull(expected);
+        Assert.assertEquals(ERROR_RESPONSE, expected.getMessage());
+    }
+
+    @Test
+    public void testMalformedResponseRejected() {
+        OpenTokException expected = null;
+        try {
+            TokBoxResponseReader.read("", "Session/session_id");
+        } catch (OpenTokException e) {
+            expected = e;
+        }
+        Assert.assertNotNull(expected);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Tests for RoutingTransport against several StandInServers with different latencies.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.transport.RoutingTransport;
+import com.opentok.api.transport.TokBoxRequest;
+import com.opentok.api.transport.TokBoxTransport;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RoutingTransportTest {
+
+    private final List<StandInServer> servers = new ArrayList<StandInServer>();
+    private PooledTokBoxTransport pool;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            servers.add(new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start());
+        }
+        pool = new PooledTokBoxTransport();
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        for (StandInServer server : servers) {
+            server.stop();
+        }
+    }
+
+    private OpenTokSDK sdk(RoutingTransport router) {
+        // The api_url's host is replaced by the router, so nothing listens on it
+        OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, "http://127.0.0.1:9");
+        sdk.setTransport(router);
+        return sdk;
+    }
+
+    private String[] urls() {
+        String[] urls = new String[servers.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = servers.get(i).getUrl();
+        }
+        return urls;
+    }
+
+    @Test
+    public void testPrefersFastEndpoint() throws Exception {
+        servers.get(0).setLatency(20, 25);
+        servers.get(1).setLatency(0, 1);
+        servers.get(2).setLatency(40, 45);
+        // Connect to every server first, so connection setup doesn't count as endpoint latency
+        for (StandInServer server : servers) {
+            OpenTokSDK direct = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+            direct.setTransport(pool);
+            direct.create_session();
+        }
+        RoutingTransport router = new RoutingTransport(pool, RoutingTransport.DEFAULT_EJECTION_MILLIS,
+                RoutingTransport.DEFAULT_EJECT_AFTER_FAILURES, new Random(42), urls());
+        OpenTokSDK sdk = sdk(router);
+        for (int i = 0; i < 150; i++) {
+            sdk.create_session();
+        }
+        long fast = servers.get(1).getSessionsCreated() - 1;
+        Assert.assertEquals(153, fast + 1 + servers.get(0).getSessionsCreated() + servers.get(2).getSessionsCreated());
+        // Replay the router's candidate picks: the fast endpoint wins every pick it is part of, except
+        // at most two lost to endpoints that had no latency sample yet
+        Random replay = new Random(42);
+        int withFast = 0;
+        for (int i = 0; i < 150; i++) {
+            int a = replay.nextInt(3);
+            int b = replay.nextInt(2);
+            if (b >= a) {
+                b++;
+            }
+            if (a == 1 || b == 1) {
+                withFast++;
+            }
+        }
+        Assert.assertTrue(router.getEndpoints() + " picks " + withFast, fast <= withFast && fast >= withFast - 2);
+        Assert.assertEquals(fast, router.getEndpoints().get(1).getRequests());
+        Assert.assertTrue(servers.get(2).getSessionsCreated() < servers.get(0).getSessionsCreated() + 5);
+        RoutingTransport.Endpoint slow = router.getEndpoints().get(2);
+        Assert.assertTrue(slow.toString(), slow.getLatencyMillis() >= 40);
+    }
+
+    @Test
+    public void testUnreachableEndpointEjected() throws Exception {
+        servers.get(0).stop();
+        RoutingTransport router = new RoutingTransport(pool, 60000, 2, urls());
+        OpenTokSDK sdk = sdk(router);
+        for (int i = 0; i < 50; i++) {
+            sdk.create_session();
+        }
+        RoutingTransport.Endpoint down = router.getEndpoints().get(0);
+        Assert.assertTrue(down.toString(), down.isEjected());
+        Assert.assertEquals(1, down.getEjections());
+        Assert.assertEquals(down.getFailures(), router.getRetries());
+        Assert.assertTrue(down.getFailures() >= 2 && down.getFailures() <= 3);
+        Assert.assertEquals(50, servers.get(1).getSessionsCreated() + servers.get(2).getSessionsCreated());
+        // start() gives a new port, so keep the stopped one out of tearDown
+        servers.remove(0);
+    }
+
+    @Test
+    public void testServerErrorsEject() throws Exception {
+        servers.get(0).setErrorRate(1.0);
+        RoutingTransport router = new RoutingTransport(pool, 60000, 3, urls());
+        OpenTokSDK sdk = sdk(router);
+        int failed = 0;
+        for (int i = 0; i < 60; i++) {
+            try {
+                sdk.create_session();
+            } catch (OpenTokRequestException e) {
+                Assert.assertEquals(500, e.getStatusCode());
+                failed++;
+            }
+        }
+        // HTTP errors are not retried, but the endpoint is ejected after 3 of them in a row
+        Assert.assertEquals(3, failed);
+        Assert.assertTrue(router.getEndpoints().get(0).isEjected());
+        Assert.assertTrue(router.getEndpoints().get(0).getErrorRate() > 0.4);
+        Assert.assertEquals(0, router.getRetries());
+    }
+
+    @Test
+    public void testTimeoutsNotRetried() throws Exception {
+        for (StandInServer server : servers) {
+            server.setLatency(300, 300);
+        }
+        RoutingTransport router = new RoutingTransport(pool, 60000, 1, urls());
+        OpenTokSDK sdk = sdk(router);
+        sdk.setTimeout(100);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertFalse(e.isClientSide());
+        }
+        // The server that timed out may still create the session, it is not sent elsewhere
+        Assert.assertEquals(0, router.getRetries());
+        long requests = 0;
+        for (StandInServer server : servers) {
+            requests += server.getRequests();
+        }
+        Assert.assertEquals(1, requests);
+    }
+
+    @Test
+    public void testClientSideTimeoutsNotCharged() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        TokBoxTransport expired = new TokBoxTransport() {
+            public String request(TokBoxRequest request) throws OpenTokException {
+                calls.incrementAndGet();
+                throw new OpenTokTimeoutException("timed out waiting for a connection", true);
+            }
+        };
+        RoutingTransport router = new RoutingTransport(expired, 60000, 1, "http://a.example.com", "http://b.example.com");
+        for (int i = 0; i < 10; i++) {
+            try {
+                router.request(new TokBoxRequest("http://api.opentok.com/session/create", new HashMap<String, String>(),
+                        new HashMap<String, String>()));
+                Assert.fail();
+            } catch (OpenTokTimeoutException expected) {
+            }
+        }
+        Assert.assertEquals(10, calls.get());
+        Assert.assertEquals(0, router.getRetries());
+        for (RoutingTransport.Endpoint endpoint : router.getEndpoints()) {
+            Assert.assertEquals(0, endpoint.getFailures());
+            Assert.assertFalse(endpoint.isEjected());
+        }
+    }
+
+    @Test
+    public void testAllEjectedStillTried() throws Exception {
+        for (StandInServer server : servers) {
+            server.setErrorRate(1.0);
+        }
+        RoutingTransport router = new RoutingTransport(pool, 60000, 1, urls());
+        OpenTokSDK sdk = sdk(router);
+        for (int i = 0; i < 6; i++) {
+            try {
+                sdk.create_session();
+                Assert.fail();
+            } catch (OpenTokRequestException expected) {
+            }
+        }
+        for (StandInServer server : servers) {
+            server.setErrorRate(0);
+        }
+        Assert.assertNotNull(sdk.create_session().getSessionId());
+    }
+
+    @Test
+    public void testUrlRewrite() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        final List<byte[]> bodies = new ArrayList<byte[]>();
+        TokBoxTransport recorder = new TokBoxTransport() {
+            public String request(TokBoxRequest request) throws OpenTokException {
+                urls.add(request.getUrl());
+                bodies.add(request.getBody());
+                return "ok";
+            }
+        };
+        RoutingTransport router = new RoutingTransport(recorder, "http://proxy.example.com:8080/opentok/");
+        router.request(new TokBoxRequest("http://api.opentok.com/session/create?x=1", "location=a&".getBytes("UTF-8"),
+                new HashMap<String, String>()));
+        router.request(new TokBoxRequest("https://api.opentok.com", Collections.singletonMap("a", "b"),
+                new HashMap<String, String>()));
+        Assert.assertEquals(Arrays.asList("http://proxy.example.com:8080/opentok/session/create?x=1",
+                "http://proxy.example.com:8080/opentok"), urls);
+        Assert.assertEquals("location=a&", new String(bodies.get(0), "UTF-8"));
+        Assert.assertEquals("a=b&", new String(bodies.get(1), "UTF-8"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Offline tests for SessionPool, using the stubbed SDK from CreateSessionTest.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSession;
+import com.opentok.api.SessionPool;
+import com.opentok.api.constants.SessionProperties;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SessionPoolTest {
+
+    private static void awaitSize(SessionPool pool, String location, SessionProperties sp, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.size(location, sp) < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(size, pool.size(location, sp));
+    }
+
+    @Test
+    public void testAcquireFromWarmPool() throws Exception {
+        CreateSessionTest.StubSDK sdk = new CreateSessionTest.StubSDK();
+        SessionPool pool = new SessionPool(sdk, 2, 5, 60000);
+        try {
+            SessionProperties sp = new SessionProperties();
+            sp.p2p_preference = "enabled";
+            pool.register("10.0.0.1", sp);
+            awaitSize(pool, "10.0.0.1", sp, 5);
+            Assert.assertEquals(5, sdk.calls.get());
+
+            // Same profile through a different SessionProperties instance
+            SessionProperties same = new SessionProperties();
+            same.p2p_preference = "enabled";
+            Set<String> ids = new HashSet<String>();
+            for (int i = 0; i < 4; i++) {
+                OpenTokSession session = pool.acquire("10.0.0.1", same);
+                Assert.assertTrue(session.getSessionId().endsWith("-10.0.0.1"));
+                ids.add(session.getSessionId());
+            }
+            Assert.assertEquals(4, ids.size());
+
+            // Dropping below the low watermark triggers a refill back up to the high watermark
+            awaitSize(pool, "10.0.0.1", sp, 5);
+            SessionPool.Stats stats = pool.getStats();
+            Assert.assertEquals(4, stats.hits);
+            Assert.assertEquals(0, stats.misses);
+            Assert.assertEquals(9, stats.refills);
+            Assert.assertTrue(stats.getMeanRefillNanos() > 0);
+            Assert.assertTrue(stats.refillNanosMax >= stats.getMeanRefillNanos());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testMissFallsBackToCreateSession() throws Exception {
+        CreateSessionTest.StubSDK sdk = new CreateSessionTest.StubSDK();
+        SessionPool pool = new SessionPool(sdk, 1, 2, 60000);
+        try {
+            OpenTokSession session = pool.acquire("10.0.0.2");
+            Assert.assertNotNull(session.getSessionId());
+            Assert.assertEquals(1, pool.getStats().misses);
+            pool.register("10.0.0.2");
+            awaitSize(pool, "10.0.0.2", null, 2);
+            pool.acquire("10.0.0.2");
+            Assert.assertEquals(1, pool.getStats().hits);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testExpiredSessionsDiscarded() throws Exception {
+        CreateSessionTest.StubSDK sdk = new CreateSessionTest.StubSDK();
+        SessionPool pool = new SessionPool(sdk, 0, 3, 100);
+        try {
+            pool.register("10.0.0.3");
+            awaitSize(pool, "10.0.0.3", (SessionProperties) null, 3);
+            Thread.sleep(250);
+            Assert.assertTrue(pool.getStats().expired >= 3);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testRefillFailuresCounted() throws Exception {
+        CreateSessionTest.StubSDK sdk = new CreateSessionTest.StubSDK();
+        sdk.fail = true;
+        SessionPool pool = new SessionPool(sdk, 1, 2, 60000);
+        try {
+            pool.register(null);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getStats().refillFailures == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertTrue(pool.getStats().refillFailures > 0);
+            Assert.assertEquals(0, pool.size(null));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testUnregisteredProfilesNotPooled() throws Exception {
+        CreateSessionTest.StubSDK sdk = new CreateSessionTest.StubSDK();
+        SessionPool pool = new SessionPool(sdk, 1, 2, 60000);
+        try {
+            for (int i = 0; i < 50; i++) {
+                Assert.assertNotNull(pool.acquire("10.0.1." + i).getSessionId());
+            }
+            Thread.sleep(100);
+            Assert.assertEquals(50, pool.getStats().misses);
+            Assert.assertEquals(0, pool.getStats().refills);
+            Assert.assertEquals(0, pool.getStats().pooled);
+            Assert.assertEquals(0, pool.size("10.0.1.0"));
+        } finally {
+            pool.close();
+        }
+    }
+}
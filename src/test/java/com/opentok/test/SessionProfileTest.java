@@ -0,0 +1,141 @@
+/*
+ * Offline tests for SessionProfile and create_session(location, profile).
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.BulkSessionResult;
+import com.opentok.api.SessionPool;
+import com.opentok.api.SessionSpec;
+import com.opentok.api.constants.SessionProfile;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.FormEncoder;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SessionProfileTest {
+
+    /** Records the body of every pre-encoded request. */
+    static class CapturingSDK extends CreateSessionTest.StubSDK {
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        protected String do_request_raw(String url, byte[] body) throws OpenTokException {
+            try {
+                bodies.add(new String(body, "UTF-8"));
+            } catch (java.io.UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            return super.do_request_raw(url, body);
+        }
+    }
+
+    @Test
+    public void testBuilderValidation() {
+        try {
+            SessionProfile.builder().p2p_preference("sometimes").build();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("p2p.preference"));
+        }
+        try {
+            SessionProfile.builder().multiplexer_numOutputStreams(-1).build();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("multiplexer.numOutputStreams"));
+        }
+        Assert.assertTrue(SessionProfile.builder().build().to_map().isEmpty());
+        Assert.assertEquals(SessionProfile.DEFAULT, SessionProfile.from(null));
+    }
+
+    @Test
+    public void testEqualsSessionProperties() {
+        SessionProperties sp = new SessionProperties();
+        sp.p2p_preference = "enabled";
+        sp.multiplexer_switchTimeout = 2000;
+        sp.echoSuppression_enabled = true;
+        SessionProfile profile = SessionProfile.builder()
+                .echoSuppression_enabled(true)
+                .multiplexer_switchTimeout(2000)
+                .p2p_preference("enabled")
+                .build();
+        Assert.assertEquals(sp.to_map(), profile.to_map());
+        Assert.assertEquals(profile, SessionProfile.from(sp));
+        Assert.assertEquals(profile.hashCode(), SessionProfile.from(sp).hashCode());
+        Assert.assertFalse(profile.equals(SessionProfile.builder().p2p_preference("enabled").build()));
+        try {
+            profile.to_map().put("location", "10.0.0.1");
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    @Test
+    public void testEncodedBodyMatchesParams() throws Exception {
+        SessionProfile profile = SessionProfile.builder()
+                .p2p_preference("disabled")
+                .multiplexer_numOutputStreams(4)
+                .build();
+        CapturingSDK sdk = new CapturingSDK();
+        Assert.assertEquals("session-1-10.0.0.1", sdk.create_session("10.0.0.1", profile).getSessionId());
+        // Another create_session with the same profile encodes the same body
+        sdk.create_session("10.0.0.1", profile);
+
+        Map<String, String> expected = new TreeMap<String, String>(profile.to_map());
+        expected.put("location", "10.0.0.1");
+        Assert.assertEquals(2, sdk.bodies.size());
+        Assert.assertEquals(sdk.bodies.get(0), sdk.bodies.get(1));
+        Assert.assertEquals(expected, new TreeMap<String, String>(CreateSessionTest.StubSDK.decode(sdk.bodies.get(0).getBytes("UTF-8"))));
+        Assert.assertEquals(new String(FormEncoder.encode(profile.to_map()), "UTF-8") + "location=10.0.0.1&", sdk.bodies.get(0));
+    }
+
+    @Test
+    public void testLocationIsEncoded() throws Exception {
+        CapturingSDK sdk = new CapturingSDK();
+        sdk.create_session("a b/c", SessionProfile.DEFAULT);
+        sdk.create_session(null, SessionProfile.DEFAULT);
+        Assert.assertEquals("location=a%20b%2Fc&", sdk.bodies.get(0));
+        Assert.assertEquals("", sdk.bodies.get(1));
+    }
+
+    @Test
+    public void testCreateSessionsWithProfile() throws Exception {
+        SessionProfile profile = SessionProfile.builder().p2p_preference("enabled").build();
+        CapturingSDK sdk = new CapturingSDK();
+        List<SessionSpec> specs = new ArrayList<SessionSpec>();
+        for (int i = 0; i < 20; i++) {
+            specs.add(new SessionSpec("10.0.0." + i, profile));
+        }
+        BulkSessionResult result = sdk.create_sessions(specs, 4);
+        Assert.assertTrue(result.isComplete());
+        Assert.assertEquals(20, sdk.bodies.size());
+        for (String body : sdk.bodies) {
+            Assert.assertTrue(body, body.startsWith("p2p.preference=enabled&location=10.0.0."));
+        }
+    }
+
+    @Test
+    public void testPoolKeysOnProfile() throws Exception {
+        CapturingSDK sdk = new CapturingSDK();
+        SessionPool pool = new SessionPool(sdk, 1, 3, 60000);
+        try {
+            SessionProfile profile = SessionProfile.builder().p2p_preference("enabled").build();
+            pool.register("10.0.0.1", profile);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.size("10.0.0.1", profile) < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            // The equivalent SessionProperties share the pooled sessions
+            SessionProperties sp = new SessionProperties();
+            sp.p2p_preference = "enabled";
+            Assert.assertEquals(3, pool.size("10.0.0.1", sp));
+            pool.acquire("10.0.0.1", sp);
+            Assert.assertEquals(1, pool.getStats().hits);
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Embedded stand-in for the OpenTok REST API, for offline and load tests.
+ *
+ * Speaks the XML protocol of /session/create, /session/{session_id} and /token/validate on
+ * localhost for a single partner. Latency, error rate and throttling can be injected.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.TokenClaims;
+import com.opentok.api.TokenVerifier;
+import com.opentok.exception.OpenTokException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StandInServer {
+
+    static {
+        // The JDK server otherwise delays small responses on kept-alive connections by ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private final int apiKey;
+    private final String apiSecret;
+    private final TokenVerifier verifier;
+    private final ConcurrentHashMap<String, Map<String, String>> sessions = new ConcurrentHashMap<String, Map<String, String>>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double errorRate;
+    private volatile int maxRequestsPerSecond;
+    // throttling window: second since start and requests admitted in it
+    private long throttleSecond = -1;
+    private int throttleCount;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errorsInjected = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public StandInServer(int apiKey, String apiSecret) throws OpenTokException {
+        this.apiKey = apiKey;
+        this.apiSecret = apiSecret;
+        this.verifier = new TokenVerifier(apiKey, apiSecret);
+    }
+
+    public StandInServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (RuntimeException e) {
+                    respond(exchange, 500, error(500, "internalError", e.toString()));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** Base url to pass to OpenTokSDK as api_url. */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Delays every response by a uniformly distributed time between min and max milliseconds. */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /** Fraction of requests, between 0 and 1, answered with an HTTP 500 error response. */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /** Requests per second above which requests are answered with HTTP 429; 0 for no limit. */
+    public void setThrottle(int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public int getSessionsCreated() {
+        return sessions.size();
+    }
+
+    public long getErrorsInjected() {
+        return errorsInjected.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Map<String, String> params = read_form(exchange);
+        delay();
+        if (!admit()) {
+            throttled.incrementAndGet();
+            respond(exchange, 429, error(429, "rateLimitError", "Too many requests"));
+            return;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errorsInjected.incrementAndGet();
+            respond(exchange, 500, error(500, "internalError", "Injected failure"));
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if ("/session/create".equals(path)) {
+            if (!partner_authenticated(exchange)) {
+                respond(exchange, 403, error(403, "authenticationError", "Invalid partner credentials"));
+                return;
+            }
+            respond(exchange, 200, create_session(params));
+        } else if (path.startsWith("/session/")) {
+            TokenClaims claims = token(exchange);
+            if (claims == null && !partner_authenticated(exchange)) {
+                respond(exchange, 403, error(403, "authenticationError", "Invalid token"));
+                return;
+            }
+            String sessionId = path.substring("/session/".length());
+            Map<String, String> session = sessions.get(sessionId);
+            if (session == null) {
+                respond(exchange, 404, error(404, "notFound", "Session not found"));
+                return;
+            }
+            respond(exchange, 200, session_info(sessionId, session));
+        } else if ("/token/validate".equals(path)) {
+            TokenClaims claims = token(exchange);
+            if (claims == null) {
+                respond(exchange, 403, error(403, "authenticationError", "Invalid token"));
+                return;
+            }
+            respond(exchange, 200, token_info(claims));
+        } else {
+            respond(exchange, 404, error(404, "notFound", "No such resource"));
+        }
+    }
+
+    private String create_session(Map<String, String> params) throws IOException {
+        String location = params.containsKey("location") ? params.get("location") : "127.0.0.1";
+        String createDt = new Date().toString();
+        String raw = "1~" + apiKey + "~" + location + "~" + createDt + "~" + ThreadLocalRandom.current().nextDouble() + "~";
+        String encoded = java.util.Base64.getEncoder().withoutPadding().encodeToString(raw.getBytes("ISO8859_1"));
+        String sessionId = "1_" + encoded.replace('+', '-').replace('/', '_');
+        Map<String, String> session = new HashMap<String, String>(params);
+        session.put("create_dt", createDt);
+        sessions.put(sessionId, session);
+        return XML_HEADER + "<sessions><Session><session_id>" + sessionId + "</session_id>"
+                + "<partner_id>" + apiKey + "</partner_id><create_dt>" + createDt + "</create_dt></Session></sessions>\n";
+    }
+
+    private String session_info(String sessionId, Map<String, String> session) {
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<sessions><Session><session_id>").append(sessionId).append("</session_id>");
+        xml.append("<partner_id>").append(apiKey).append("</partner_id>");
+        xml.append("<create_dt>").append(session.get("create_dt")).append("</create_dt>");
+        xml.append("<properties>");
+        String p2p = session.get("p2p.preference");
+        xml.append("<p2p><preference>").append(p2p != null ? escape(p2p) : "disabled").append("</preference></p2p>");
+        xml.append("</properties></Session></sessions>\n");
+        return xml.toString();
+    }
+
+    private String token_info(TokenClaims claims) {
+        String role = claims.getRole().length() == 0 ? "publisher" : claims.getRole();
+        StringBuilder xml = new StringBuilder(XML_HEADER);
+        xml.append("<Tokens><token><role>").append(escape(role)).append("</role>");
+        if (claims.getExpireTime() != null) {
+            xml.append("<expire_time>").append(claims.getExpireTime()).append("</expire_time>");
+        }
+        if (claims.getConnectionData() != null) {
+            xml.append("<connection_data>").append(escape(claims.getConnectionData())).append("</connection_data>");
+        }
+        if (claims.isExpired()) {
+            xml.append("<invalid>Token expired on ").append(claims.getExpiresAt()).append("</invalid>");
+        }
+        xml.append("<permissions>");
+        xml.append("<subscribe/>");
+        if (!"subscriber".equals(role)) {
+            xml.append("<publish/><signal/>");
+        }
+        if ("moderator".equals(role)) {
+            xml.append("<forceunpublish/><forcedisconnect/><record/><playback/>");
+        }
+        xml.append("</permissions></token></Tokens>\n");
+        return xml.toString();
+    }
+
+    private static String error(int code, String type, String message) {
+        return XML_HEADER + "<Errors><error code=\"" + code + "\"><" + type + " message=\"" + escape(message)
+                + "\"/></error></Errors>\n";
+    }
+
+    private boolean partner_authenticated(HttpExchange exchange) {
+        return (apiKey + ":" + apiSecret).equals(exchange.getRequestHeaders().getFirst("X-TB-PARTNER-AUTH"));
+    }
+
+    private TokenClaims token(HttpExchange exchange) {
+        String token = exchange.getRequestHeaders().getFirst("X-TB-TOKEN-AUTH");
+        if (token == null) {
+            return null;
+        }
+        try {
+            return verifier.verify(token);
+        } catch (OpenTokException e) {
+            return null;
+        }
+    }
+
+    private void delay() {
+        long max = maxLatencyMillis;
+        if (max <= 0) {
+            return;
+        }
+        long min = minLatencyMillis;
+        long millis = min + (max > min ? ThreadLocalRandom.current().nextLong(max - min + 1) : 0);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean admit() {
+        int limit = maxRequestsPerSecond;
+        if (limit <= 0) {
+            return true;
+        }
+        long second = System.nanoTime() / 1000000000L;
+        if (second != throttleSecond) {
+            throttleSecond = second;
+            throttleCount = 0;
+        }
+        return ++throttleCount <= limit;
+    }
+
+    private static Map<String, String> read_form(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            body.write(buffer, 0, n);
+        }
+        Map<String, String> params = new HashMap<String, String>();
+        for (String pair : body.toString("UTF-8").split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = xml.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Offline tests for the SDK against the embedded StandInServer, and for the LoadDriver.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.BulkSessionResult;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.SessionSpec;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.metrics.Operation;
+import com.opentok.metrics.Outcome;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StandInServerTest {
+
+    private StandInServer server;
+    private OpenTokSDK sdk;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testCreateSessionAndGenerateToken() throws Exception {
+        SessionProperties sp = new SessionProperties();
+        sp.p2p_preference = "enabled";
+        String session = sdk.create_session("10.0.0.1", sp).getSessionId();
+        Assert.assertEquals(1, server.getSessionsCreated());
+        // The stand-in's session ids pass the SDK's own session id check
+        String token = sdk.generate_token(session, RoleConstants.MODERATOR, null, "data");
+        Assert.assertEquals(RoleConstants.MODERATOR, sdk.verify_token(token).getRole());
+    }
+
+    @Test
+    public void testWrongCredentialsRejected() throws Exception {
+        OpenTokSDK other = new OpenTokSDK(TokenGenerationTest.API_KEY, "0000000000abcdef1234567890abcdef12345678", server.getUrl());
+        try {
+            other.create_session();
+            Assert.fail();
+        } catch (OpenTokRequestException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("authenticationError"));
+        }
+    }
+
+    @Test
+    public void testInjectedErrors() throws Exception {
+        server.setErrorRate(1.0);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokException expected) {
+        }
+        Assert.assertEquals(1, server.getErrorsInjected());
+        Assert.assertEquals(1, sdk.getMetrics().snapshot().getCount(Operation.CREATE_SESSION, Outcome.HTTP_ERROR));
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        server.setThrottle(5);
+        int failed = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                sdk.create_session();
+            } catch (OpenTokRequestException e) {
+                failed++;
+            }
+        }
+        // Ten fast calls can straddle a second boundary, so at least five are throttled only usually
+        Assert.assertTrue("throttled " + server.getThrottled(), server.getThrottled() >= 1);
+        Assert.assertEquals(server.getThrottled(), failed);
+    }
+
+    @Test
+    public void testInjectedLatency() throws Exception {
+        server.setLatency(50, 50);
+        long start = System.nanoTime();
+        sdk.create_session();
+        Assert.assertTrue(System.nanoTime() - start >= 50000000L);
+    }
+
+    @Test
+    public void testLoadDriverReport() throws Exception {
+        server.setLatency(2, 4);
+        server.setErrorRate(0.1);
+        LoadDriver.Report report = new LoadDriver(sdk, LoadDriver.CREATE_SESSION_AND_TOKEN).run(200, 1000, 16);
+        Assert.assertEquals(200, report.sent);
+        Assert.assertEquals(200, report.succeeded + report.failed);
+        Assert.assertEquals(server.getErrorsInjected(), report.failed);
+        Assert.assertEquals(report.succeeded, report.latency.getCount());
+        Assert.assertTrue(report.toString(), report.latency.getPercentileNanos(0.5) >= 2000000L);
+        Assert.assertTrue(report.toString(), report.getThroughput() > 100);
+    }
+
+    @Test
+    public void testCreateSessionsReusesConnections() throws Exception {
+        server.setLatency(1, 3);
+        PooledTokBoxTransport transport = new PooledTokBoxTransport();
+        sdk.setTransport(transport);
+        List<SessionSpec> specs = new ArrayList<SessionSpec>();
+        for (int i = 0; i < 300; i++) {
+            specs.add(new SessionSpec("10.1.0." + (i % 256)));
+        }
+        BulkSessionResult result = sdk.create_sessions(specs, 10);
+        Assert.assertTrue(result.toString(), result.isComplete());
+        Assert.assertEquals(300, server.getSessionsCreated());
+        Assert.assertTrue("opened " + transport.getConnectionsOpened(), transport.getConnectionsOpened() <= 10);
+        transport.close();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Tests for request deadlines: SDK and per-call timeouts against a slow StandInServer,
+ * with the pooled and the unpooled transport.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokBoxNetConnection;
+import com.opentok.api.constants.SessionProfile;
+import com.opentok.api.transport.PooledTokBoxTransport;
+import com.opentok.exception.OpenTokRequestException;
+import com.opentok.exception.OpenTokTimeoutException;
+import com.opentok.metrics.MetricsSnapshot;
+import com.opentok.metrics.Operation;
+import com.opentok.metrics.Outcome;
+import java.util.HashMap;
+import java.util.concurrent.*;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeoutTest {
+
+    private StandInServer server;
+    private PooledTokBoxTransport pool;
+    private OpenTokSDK sdk;
+
+    @Before
+    public void start() throws Exception {
+        server = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        pool = new PooledTokBoxTransport(1, 30000);
+        sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET, server.getUrl());
+        sdk.setTransport(pool);
+    }
+
+    @After
+    public void stop() {
+        pool.close();
+        server.stop();
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testPerCallTimeout() throws Exception {
+        Assert.assertEquals(OpenTokSDK.DEFAULT_TIMEOUT_MILLIS, sdk.getTimeout());
+        server.setLatency(500, 500);
+        long start = System.nanoTime();
+        try {
+            sdk.create_session(null, SessionProfile.DEFAULT, 100);
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertEquals(-1, e.getStatusCode());
+            Assert.assertFalse(e.isClientSide());
+        }
+        long elapsed = millisSince(start);
+        Assert.assertTrue("elapsed " + elapsed, elapsed >= 90 && elapsed < 400);
+
+        MetricsSnapshot snapshot = sdk.getMetrics().snapshot();
+        Assert.assertEquals(1, snapshot.getCount(Operation.CREATE_SESSION, Outcome.TIMEOUT));
+        Assert.assertEquals(1, snapshot.getCount(Operation.DO_REQUEST, Outcome.TIMEOUT));
+        Assert.assertEquals(0, snapshot.getCount(Operation.XML_PARSE, Outcome.PARSE_ERROR));
+
+        // The timed out connection is not pooled, the next call gets a fresh one
+        server.setLatency(0, 0);
+        Assert.assertNotNull(sdk.create_session(null, SessionProfile.DEFAULT, 1000).getSessionId());
+        Assert.assertEquals(2, pool.getConnectionsOpened());
+    }
+
+    @Test
+    public void testSdkTimeout() throws Exception {
+        server.setLatency(300, 300);
+        sdk.setTimeout(100);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokTimeoutException expected) {
+        }
+        // A per-call timeout overrides the SDK's, 0 lifts it
+        Assert.assertNotNull(sdk.create_session(null, new HashMap<String, String>(), 0).getSessionId());
+        sdk.setTimeout(0);
+        Assert.assertNotNull(sdk.create_session().getSessionId());
+        try {
+            sdk.setTimeout(-1);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testTimeoutWaitingForPooledConnection() throws Exception {
+        server.setLatency(400, 400);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        // Holds the only connection of the route
+        Future<?> slow = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return sdk.create_session(null, SessionProfile.DEFAULT, 0);
+            }
+        });
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        try {
+            sdk.create_session(null, SessionProfile.DEFAULT, 100);
+            Assert.fail();
+        } catch (OpenTokTimeoutException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("waiting for a connection"));
+            Assert.assertTrue(e.isClientSide());
+        }
+        Assert.assertTrue(millisSince(start) < 300);
+        Assert.assertNotNull(slow.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        // The request never reached the server
+        Assert.assertEquals(1, server.getRequests());
+    }
+
+    @Test
+    public void testUnpooledTimeoutAndErrors() throws Exception {
+        sdk.setTransport(new TokBoxNetConnection());
+        server.setLatency(500, 500);
+        long start = System.nanoTime();
+        try {
+            sdk.create_session(null, SessionProfile.DEFAULT, 100);
+            Assert.fail();
+        } catch (OpenTokTimeoutException expected) {
+        }
+        Assert.assertTrue(millisSince(start) < 400);
+
+        // Errors are thrown with their status rather than returned as an empty response
+        server.setLatency(0, 0);
+        server.setErrorRate(1.0);
+        try {
+            sdk.create_session();
+            Assert.fail();
+        } catch (OpenTokRequestException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+        }
+        Assert.assertEquals(0, sdk.getMetrics().snapshot().getCount(Operation.XML_PARSE, Outcome.PARSE_ERROR));
+    }
+}
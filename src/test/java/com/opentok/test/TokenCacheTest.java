@@ -0,0 +1,156 @@
+/*
+ * Offline tests for TokenCache.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenCache;
+import com.opentok.api.TokenClaims;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenCacheTest {
+
+    private final OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+
+    @Test
+    public void testRepeatRequestsHitCache() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        TokenCache cache = new TokenCache(sdk, 100, 1 << 20);
+        String token = cache.generate_token(session, RoleConstants.SUBSCRIBER, null, "user=1");
+        Assert.assertSame(token, cache.generate_token(session, RoleConstants.SUBSCRIBER, null, "user=1"));
+        Assert.assertSame(token, cache.generate_token(session, RoleConstants.SUBSCRIBER, null, "user=1"));
+        // Any difference in the key is a separate token
+        Assert.assertNotSame(token, cache.generate_token(session, RoleConstants.PUBLISHER, null, "user=1"));
+        Assert.assertNotSame(token, cache.generate_token(session, RoleConstants.SUBSCRIBER, null, "user=2"));
+        Assert.assertNotSame(token, cache.generate_token(session, RoleConstants.SUBSCRIBER, null, null));
+
+        TokenClaims claims = sdk.verify_token(token);
+        Assert.assertEquals(RoleConstants.SUBSCRIBER, claims.getRole());
+        Assert.assertEquals("user=1", claims.getConnectionData());
+
+        TokenCache.Stats stats = cache.getStats();
+        Assert.assertEquals(2, stats.hits);
+        Assert.assertEquals(4, stats.misses);
+        Assert.assertEquals(4, stats.entries);
+        Assert.assertTrue(stats.estimatedBytes > 0);
+        Assert.assertEquals(2 / 6.0, stats.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testExpiryBuckets() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        TokenCache cache = new TokenCache(sdk, 100, 1 << 20, 3600);
+        long now = System.currentTimeMillis() / 1000;
+        long bucketStart = (now + 7200) / 3600 * 3600 + 3600;
+
+        String token = cache.generate_token(session, RoleConstants.PUBLISHER, bucketStart + 3599);
+        Assert.assertSame(token, cache.generate_token(session, RoleConstants.PUBLISHER, bucketStart + 10));
+        Assert.assertSame(token, cache.generate_token(session, RoleConstants.PUBLISHER, bucketStart));
+        // The token expires at the start of the bucket, never after the requested time
+        Assert.assertEquals(Long.valueOf(bucketStart), sdk.verify_token(token).getExpireTime());
+        Assert.assertNotSame(token, cache.generate_token(session, RoleConstants.PUBLISHER, bucketStart - 1));
+        Assert.assertEquals(2, cache.getStats().hits);
+    }
+
+    @Test
+    public void testTokenNearExpiryNotCached() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        TokenCache cache = new TokenCache(sdk, 100, 1 << 20, 3600);
+        long now = System.currentTimeMillis() / 1000;
+        // Less than a bucket of lifetime left once rounded down, so generated as requested
+        long expire = now + 3600;
+        String token = cache.generate_token(session, RoleConstants.PUBLISHER, expire);
+        Assert.assertEquals(Long.valueOf(expire), sdk.verify_token(token).getExpireTime());
+        Assert.assertNotSame(token, cache.generate_token(session, RoleConstants.PUBLISHER, expire));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(2, cache.getStats().misses);
+    }
+
+    @Test
+    public void testInvalidArgumentsNotCached() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        TokenCache cache = new TokenCache(sdk, 100, 1 << 20);
+        long now = System.currentTimeMillis() / 1000;
+        try {
+            cache.generate_token(session, RoleConstants.PUBLISHER, now - 100);
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertTrue(e.getMessage().contains("future"));
+        }
+        try {
+            cache.generate_token(session, "admin");
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertTrue(e.getMessage().contains("role"));
+        }
+        try {
+            cache.generate_token("not a session");
+            Assert.fail();
+        } catch (OpenTokException e) {
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLruEvictionByCount() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        // A single segment, so the LRU order is global
+        TokenCache cache = new TokenCache(sdk, 1, 1 << 20);
+        String first = cache.generate_token(session, RoleConstants.PUBLISHER, null, "a");
+        cache.generate_token(session, RoleConstants.PUBLISHER, null, "b");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotSame(first, cache.generate_token(session, RoleConstants.PUBLISHER, null, "a"));
+        Assert.assertEquals(2, cache.getStats().evictions);
+
+        TokenCache many = new TokenCache(sdk, 64, 1 << 20);
+        for (int i = 0; i < 1000; i++) {
+            many.generate_token(session, RoleConstants.PUBLISHER, null, "user=" + i);
+        }
+        Assert.assertTrue("size " + many.size(), many.size() <= 64);
+        Assert.assertEquals(1000 - many.size(), many.getStats().evictions);
+
+        // 20 entries over 16 segments: the shares add up to 20 rather than 16
+        TokenCache uneven = new TokenCache(sdk, 20, 1 << 20);
+        for (int i = 0; i < 1000; i++) {
+            uneven.generate_token(session, RoleConstants.PUBLISHER, null, "user=" + i);
+        }
+        Assert.assertTrue("size " + uneven.size(), uneven.size() > 16 && uneven.size() <= 20);
+    }
+
+    @Test
+    public void testMemoryCap() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        TokenCache cache = new TokenCache(sdk, 100000, 64 * 1024);
+        char[] data = new char[100];
+        Arrays.fill(data, 'x');
+        for (int i = 0; i < 1000; i++) {
+            cache.generate_token(session, RoleConstants.PUBLISHER, null, i + new String(data));
+        }
+        TokenCache.Stats stats = cache.getStats();
+        Assert.assertTrue("bytes " + stats.estimatedBytes, stats.estimatedBytes <= 64 * 1024);
+        Assert.assertTrue(stats.entries > 0 && stats.entries < 1000);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        String raw = "1~" + TokenGenerationTest.API_KEY + "~10.0.0.1~Sat Oct 18 12:00:00 PDT 2026~0.654321~";
+        String other = "1_" + java.util.Base64.getEncoder().withoutPadding().encodeToString(raw.getBytes("ISO8859_1"))
+                .replace('+', '-').replace('/', '_');
+        TokenCache cache = new TokenCache(sdk, 100, 1 << 20);
+        String token = cache.generate_token(session);
+        cache.generate_token(other);
+        cache.invalidate(session);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotSame(token, cache.generate_token(session));
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getStats().estimatedBytes);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Offline tests for TokenExporter.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenClaims;
+import com.opentok.api.TokenExporter;
+import com.opentok.api.TokenSpec;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenExporterTest {
+
+    private final OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+
+    /** count specs, cycling through roles and connection_data in runs of 100. */
+    private static Iterator<TokenSpec> specs(final int count) {
+        final String[] roles = { RoleConstants.PUBLISHER, RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR };
+        return new Iterator<TokenSpec>() {
+            int i;
+
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            public TokenSpec next() {
+                int run = i++ / 100;
+                return new TokenSpec(roles[run % 3], null, run % 2 == 0 ? null : "name=user " + run + "\tx");
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void verifyLines(List<String> lines, int count) throws Exception {
+        Assert.assertEquals(count, lines.size());
+        Set<String> tokens = new HashSet<String>();
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            Assert.assertEquals(line, 3, fields.length);
+            TokenClaims claims = sdk.verify_token(fields[0]);
+            Assert.assertEquals(fields[1], claims.getRole());
+            String connectionData = fields[2].length() == 0 ? null : URLDecoder.decode(fields[2], "UTF-8");
+            Assert.assertEquals(connectionData, claims.getConnectionData());
+            Assert.assertTrue(tokens.add(fields[0]));
+        }
+    }
+
+    private static List<String> lines(byte[] bytes) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "US-ASCII"));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void testExportToOutputStream() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Small buffers so that many of them are handed over
+        TokenExporter.Result result = new TokenExporter(sdk, 3, 32 * 1024).export(session, specs(2000), out);
+        Assert.assertEquals(2000, result.getTokens());
+        Assert.assertEquals(out.size(), result.getBytes());
+        Assert.assertTrue(result.getThroughput() > 0);
+        verifyLines(lines(out.toByteArray()), 2000);
+    }
+
+    @Test
+    public void testExportToFileChannel() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        Path file = Files.createTempFile("tokens", ".txt");
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            TokenExporter.Result result;
+            try {
+                result = new TokenExporter(sdk).export(session, specs(500), channel);
+            } finally {
+                channel.close();
+            }
+            Assert.assertEquals(Files.size(file), result.getBytes());
+            verifyLines(lines(Files.readAllBytes(file)), 500);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEmptyExport() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TokenExporter.Result result = new TokenExporter(sdk).export(session, specs(0), out);
+        Assert.assertEquals(0, result.getTokens());
+        Assert.assertEquals(0, out.size());
+    }
+
+    @Test
+    public void testBadSpecAbortsExport() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        List<TokenSpec> specs = new ArrayList<TokenSpec>();
+        for (int i = 0; i < 5000; i++) {
+            specs.add(new TokenSpec(i == 1000 ? "admin" : RoleConstants.PUBLISHER));
+        }
+        try {
+            new TokenExporter(sdk, 2, 32 * 1024).export(session, specs.iterator(), new ByteArrayOutputStream());
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("admin"));
+        }
+
+        try {
+            new TokenExporter(sdk).export("not a session", specs(10), new ByteArrayOutputStream());
+            Assert.fail();
+        } catch (OpenTokException expected) {
+        }
+    }
+
+    @Test
+    public void testWriteFailureAbortsExport() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        OutputStream broken = new OutputStream() {
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        try {
+            new TokenExporter(sdk, 2, 32 * 1024).export(session, specs(5000), broken);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionFromChannelStopsProducers() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+            sdk.setAsyncExecutor(executor);
+            OutputStream broken = new OutputStream() {
+                public void write(int b) {
+                    throw new IllegalStateException("closed");
+                }
+            };
+            try {
+                new TokenExporter(sdk, 2, 32 * 1024).export(session, specs(50000), broken);
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("closed", e.getMessage());
+            }
+            // The producers must not stay blocked waiting for a free buffer
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
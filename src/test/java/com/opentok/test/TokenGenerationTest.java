@@ -0,0 +1,248 @@
+/*
+ * Offline tests for token generation. Tokens are decoded and checked locally,
+ * so no apiKey/apiSecret or network access is needed.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenSpec;
+import com.opentok.api.TokenTemplate;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.GenerateMac;
+import java.net.URLDecoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenGenerationTest {
+
+    static final int API_KEY = 12345;
+    static final String API_SECRET = "1234567890abcdef1234567890abcdef12345678";
+
+    private final OpenTokSDK sdk = new OpenTokSDK(API_KEY, API_SECRET);
+
+    static String sessionId(int apiKey) throws Exception {
+        String raw = "1~" + apiKey + "~127.0.0.1~Sat Oct 18 12:00:00 PDT 2026~0.123456~";
+        String encoded = java.util.Base64.getEncoder().withoutPadding().encodeToString(raw.getBytes("ISO8859_1"));
+        return "1_" + encoded.replace('+', '-').replace('/', '_');
+    }
+
+    /** Decodes a T1== token, checks its signature and returns the signed data fields. */
+    static Map<String, String> decode(String token) throws Exception {
+        Assert.assertTrue(token.startsWith("T1=="));
+        String inner = new String(java.util.Base64.getDecoder().decode(token.substring(4)), "UTF-8");
+        Assert.assertTrue(inner.startsWith("partner_id=" + API_KEY + "&sig="));
+        String sig = inner.substring(inner.indexOf("&sig=") + 5, inner.indexOf(':'));
+        String data = inner.substring(inner.indexOf(':') + 1);
+        Assert.assertEquals("signature mismatch", GenerateMac.calculateRFC2104HMAC(data, API_SECRET), sig);
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (String pair : data.split("&")) {
+            int eq = pair.indexOf('=');
+            fields.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return fields;
+    }
+
+    @Test
+    public void testGenerateTokenSignedData() throws Exception {
+        String session = sessionId(API_KEY);
+        long expire = System.currentTimeMillis() / 1000 + 3600;
+        Map<String, String> fields = decode(sdk.generate_token(session, RoleConstants.MODERATOR, expire, "name=Jo & Co"));
+        Assert.assertEquals(session, fields.get("session_id"));
+        Assert.assertEquals(RoleConstants.MODERATOR, fields.get("role"));
+        Assert.assertEquals(String.valueOf(expire), fields.get("expire_time"));
+        Assert.assertEquals("name=Jo & Co", fields.get("connection_data"));
+        Assert.assertNotNull(fields.get("nonce"));
+        Assert.assertNotNull(fields.get("create_time"));
+    }
+
+    @Test
+    public void testGenerateTokenOtherPartnerRejected() throws Exception {
+        OpenTokException expected = null;
+        try {
+            sdk.generate_token(sessionId(API_KEY + 1));
+        } catch (OpenTokException e) {
+            expected = e;
+        }
+        Assert.assertNotNull(expected);
+    }
+
+    @Test
+    public void testGenerateTokensPreservesOrder() throws Exception {
+        String session = sessionId(API_KEY);
+        String[] roles = { RoleConstants.PUBLISHER, RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR };
+        List<TokenSpec> specs = new ArrayList<TokenSpec>();
+        for (int i = 0; i < 1000; i++) {
+            specs.add(new TokenSpec(roles[i % 3], null, "user-" + i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> tokens = sdk.generate_tokens(session, specs, executor);
+            Assert.assertEquals(specs.size(), tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                Map<String, String> fields = decode(tokens.get(i));
+                Assert.assertEquals(session, fields.get("session_id"));
+                Assert.assertEquals(roles[i % 3], fields.get("role"));
+                Assert.assertEquals("user-" + i, fields.get("connection_data"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGenerateTokensRejectsBadSpec() throws Exception {
+        List<TokenSpec> specs = new ArrayList<TokenSpec>();
+        for (int i = 0; i < 500; i++) {
+            specs.add(new TokenSpec(i == 321 ? "asdfasdf" : RoleConstants.PUBLISHER));
+        }
+        OpenTokException expected = null;
+        try {
+            sdk.generate_tokens(sessionId(API_KEY), specs);
+        } catch (OpenTokException e) {
+            expected = e;
+        }
+        Assert.assertNotNull(expected);
+        Assert.assertEquals("asdfasdf is not a recognized role", expected.getMessage());
+    }
+
+    @Test
+    public void testGenerateTokensOnForkJoinPool() throws Exception {
+        String session = sessionId(API_KEY);
+        List<TokenSpec> specs = new ArrayList<TokenSpec>();
+        for (int i = 0; i < 2000; i++) {
+            specs.add(new TokenSpec(RoleConstants.SUBSCRIBER, null, "user-" + i));
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            List<String> tokens = sdk.generate_tokens(session, specs, pool);
+            for (int i = 0; i < tokens.size(); i++) {
+                Assert.assertEquals("user-" + i, decode(tokens.get(i)).get("connection_data"));
+            }
+            // Two rejected specs far apart: the first in input order is reported
+            specs.set(1900, new TokenSpec("second"));
+            specs.set(150, new TokenSpec("first"));
+            try {
+                sdk.generate_tokens(session, specs, pool);
+                Assert.fail();
+            } catch (OpenTokException e) {
+                Assert.assertEquals("first is not a recognized role", e.getMessage());
+            }
+            try {
+                sdk.generate_tokens(session, specs);
+                Assert.fail();
+            } catch (OpenTokException e) {
+                Assert.assertEquals("first is not a recognized role", e.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTokenTemplate() throws Exception {
+        String session = sessionId(API_KEY);
+        TokenTemplate template = sdk.token_template(session, RoleConstants.SUBSCRIBER, "\u00e9l\u00e8ve=1&x");
+        long expire = System.currentTimeMillis() / 1000 + 60;
+        Set<String> nonces = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, String> fields = decode(i % 2 == 0 ? template.generate_token() : template.generate_token(expire));
+            Assert.assertEquals(Arrays.asList(i % 2 == 0
+                    ? new String[] { "session_id", "create_time", "nonce", "role", "connection_data" }
+                    : new String[] { "session_id", "create_time", "nonce", "role", "expire_time", "connection_data" }),
+                    new ArrayList<String>(fields.keySet()));
+            Assert.assertEquals(session, fields.get("session_id"));
+            Assert.assertEquals(RoleConstants.SUBSCRIBER, fields.get("role"));
+            Assert.assertEquals("\u00e9l\u00e8ve=1&x", fields.get("connection_data"));
+            Assert.assertTrue(Math.abs(Long.parseLong(fields.get("create_time")) - System.currentTimeMillis() / 1000) <= 1);
+            if (i % 2 == 1) {
+                Assert.assertEquals(String.valueOf(expire), fields.get("expire_time"));
+            }
+            nonces.add(fields.get("nonce"));
+        }
+        Assert.assertTrue(nonces.size() > 90);
+    }
+
+    @Test
+    public void testTokenTemplateValidatesUpFront() throws Exception {
+        String session = sessionId(API_KEY);
+        try {
+            sdk.token_template(session, "asdfasdf");
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertEquals("asdfasdf is not a recognized role", e.getMessage());
+        }
+        try {
+            sdk.token_template(sessionId(API_KEY + 1), RoleConstants.PUBLISHER);
+            Assert.fail();
+        } catch (OpenTokException expected) {
+        }
+        TokenTemplate template = sdk.token_template(session, "");
+        try {
+            template.generate_token(System.currentTimeMillis() / 1000 - 100);
+            Assert.fail();
+        } catch (OpenTokException e) {
+            Assert.assertEquals("Expire time must be in the future", e.getMessage());
+        }
+        Assert.assertEquals("", decode(template.generate_token()).get("role"));
+    }
+
+    @Test
+    public void testTokenIntoBuffers() throws Exception {
+        String session = sessionId(API_KEY);
+        long expire = System.currentTimeMillis() / 1000 + 3600;
+        for (String role : new String[] { RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR, "" }) {
+            for (String data : new String[] { null, "", "name=\u00dcn\u00efcode & more" }) {
+                TokenTemplate template = sdk.token_template(session, role, data);
+                for (Long expireTime : new Long[] { null, expire }) {
+                    int length = template.token_length(expireTime);
+                    Assert.assertEquals(length, template.generate_token(expireTime).length());
+
+                    ByteBuffer heap = ByteBuffer.allocate(length + 8);
+                    heap.position(3);
+                    Assert.assertEquals(length, template.generate_token(expireTime, heap));
+                    Assert.assertEquals(3 + length, heap.position());
+                    String token = new String(heap.array(), 3, length, "US-ASCII");
+                    Map<String, String> fields = decode(token);
+                    Assert.assertEquals(role, fields.get("role"));
+                    Assert.assertEquals(data, fields.get("connection_data"));
+                    Assert.assertEquals(expireTime == null ? null : expireTime.toString(), fields.get("expire_time"));
+                    Assert.assertEquals(10, fields.get("nonce").length());
+
+                    ByteBuffer direct = ByteBuffer.allocateDirect(length);
+                    Assert.assertEquals(length, template.generate_token(expireTime, direct));
+                    Assert.assertFalse(direct.hasRemaining());
+                    direct.flip();
+                    byte[] bytes = new byte[length];
+                    direct.get(bytes);
+                    decode(new String(bytes, "US-ASCII"));
+
+                    StringBuilder sb = new StringBuilder("token: ");
+                    Assert.assertEquals(length, template.generate_token(expireTime, sb));
+                    Assert.assertEquals(7 + length, sb.length());
+                    decode(sb.substring(7));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTokenIntoShortBuffer() throws Exception {
+        TokenTemplate template = sdk.token_template(sessionId(API_KEY), RoleConstants.PUBLISHER);
+        ByteBuffer buffer = ByteBuffer.allocate(template.token_length(null) - 1);
+        try {
+            template.generate_token(null, buffer);
+            Assert.fail();
+        } catch (BufferOverflowException expected) {
+        }
+        Assert.assertEquals(0, buffer.position());
+    }
+}
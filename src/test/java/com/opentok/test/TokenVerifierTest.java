@@ -0,0 +1,118 @@
+/*
+ * Offline tests for local token verification.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenClaims;
+import com.opentok.api.TokenVerifier;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.Base64;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenVerifierTest {
+
+    private final OpenTokSDK sdk = new OpenTokSDK(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+
+    @Test
+    public void testVerifyGeneratedToken() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        long expire = System.currentTimeMillis() / 1000 + 3600;
+        String token = sdk.generate_token(session, RoleConstants.MODERATOR, expire, "name=Jo & Co \u00e9");
+        TokenClaims claims = sdk.verify_token(token);
+        Assert.assertEquals(TokenGenerationTest.API_KEY, claims.getPartnerId());
+        Assert.assertEquals(session, claims.getSessionId());
+        Assert.assertEquals(RoleConstants.MODERATOR, claims.getRole());
+        Assert.assertEquals(Long.valueOf(expire), claims.getExpireTime());
+        Assert.assertEquals(expire, claims.getExpiresAt());
+        Assert.assertEquals("name=Jo & Co \u00e9", claims.getConnectionData());
+        Assert.assertEquals(TokenGenerationTest.decode(token).get("nonce"), String.valueOf(claims.getNonce()));
+        Assert.assertTrue(Math.abs(claims.getCreateTime() - System.currentTimeMillis() / 1000) <= 1);
+        Assert.assertFalse(claims.isExpired());
+    }
+
+    @Test
+    public void testDefaultExpiry() throws Exception {
+        TokenClaims claims = sdk.verify_token(sdk.generate_token(TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY)));
+        Assert.assertNull(claims.getExpireTime());
+        Assert.assertNull(claims.getConnectionData());
+        Assert.assertEquals(RoleConstants.PUBLISHER, claims.getRole());
+        Assert.assertEquals(claims.getCreateTime() + TokenClaims.DEFAULT_LIFETIME_SECONDS, claims.getExpiresAt());
+    }
+
+    @Test
+    public void testRejectsTamperedAndForeignTokens() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        String token = sdk.generate_token(session, RoleConstants.SUBSCRIBER);
+        TokenVerifier verifier = new TokenVerifier(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+        Assert.assertTrue(verifier.is_valid(token));
+
+        // Upgrade the role without re-signing
+        String inner = new String(java.util.Base64.getDecoder().decode(token.substring(4)), "UTF-8");
+        String forged = "T1==" + Base64.encode(inner.replace("role=subscriber", "role=moderator"));
+        Assert.assertFalse(verifier.is_valid(forged));
+        assertRejected(verifier, forged, "Token signature is invalid");
+
+        TokenVerifier otherSecret = new TokenVerifier(TokenGenerationTest.API_KEY, "0000000000abcdef1234567890abcdef12345678");
+        Assert.assertFalse(otherSecret.is_valid(token));
+
+        TokenVerifier otherPartner = new TokenVerifier(TokenGenerationTest.API_KEY + 1, TokenGenerationTest.API_SECRET);
+        assertRejected(otherPartner, token, "Token does not belong to the same partnerId");
+
+        assertRejected(verifier, null, "Token is malformed");
+        assertRejected(verifier, "T1==", "Token is malformed");
+        assertRejected(verifier, "T2==" + token.substring(4), "Token is malformed");
+        assertRejected(verifier, token.substring(0, token.length() - 1), "Token is malformed");
+        assertRejected(verifier, "T1==" + Base64.encode("partner_id=12345&sig=abc"), "Token is malformed");
+        assertRejected(verifier, "T1==" + Base64.encode("partner_id=12345&sig=abc:session_id=x"), "Token signature is invalid");
+    }
+
+    @Test
+    public void testLongestTokenAcceptedLongerRejected() throws Exception {
+        String session = TokenGenerationTest.sessionId(TokenGenerationTest.API_KEY);
+        char[] data = new char[1000];
+        java.util.Arrays.fill(data, '\u20ac');
+        String connectionData = new String(data);
+        String token = sdk.generate_token(session, RoleConstants.MODERATOR, System.currentTimeMillis() / 1000 + 3600, connectionData);
+        Assert.assertEquals(connectionData, sdk.verify_token(token).getConnectionData());
+
+        // Rejected from its length alone, without decoding
+        char[] padding = new char[20000];
+        java.util.Arrays.fill(padding, 'A');
+        TokenVerifier verifier = new TokenVerifier(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET);
+        assertRejected(verifier, token + new String(padding), "Token is malformed");
+    }
+
+    @Test
+    public void testBase64DecodeMatchesJdk() throws Exception {
+        byte[] dst = new byte[64];
+        for (int n = 0; n < 40; n++) {
+            byte[] src = new byte[n];
+            for (int i = 0; i < n; i++) {
+                src[i] = (byte) (i * 37 + n);
+            }
+            String encoded = java.util.Base64.getEncoder().encodeToString(src);
+            int length = Base64.decode(encoded, 0, encoded.length(), dst, 0);
+            Assert.assertEquals(n, length);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(src[i], dst[i]);
+            }
+        }
+        Assert.assertEquals(-1, Base64.decode("ab$d", 0, 4, dst, 0));
+        Assert.assertEquals(-1, Base64.decode("ab=dabcd", 0, 8, dst, 0));
+        Assert.assertEquals(-1, Base64.decode("abc", 0, 3, dst, 0));
+    }
+
+    private static void assertRejected(TokenVerifier verifier, String token, String message) {
+        try {
+            verifier.verify(token);
+            Assert.fail("accepted " + token);
+        } catch (OpenTokException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+}
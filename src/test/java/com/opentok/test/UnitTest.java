@@ -1,7 +1,9 @@
 /*
  * These unit tests require the opentok Java SDK.
  * https://github.com/opentok/Opentok-Java-SDK.git
- * 
+ *
+ * They run against the API when the apiKey and apiSecret system properties are set,
+ * and against an embedded StandInServer on localhost otherwise.
  */
 
 package com.opentok.test;
@@ -26,11 +28,28 @@ public class UnitTest {
 
     private int apiKey;
     private String apiSecret;
+    private String apiUrl;
+
+    private static StandInServer standIn;
+
+    public UnitTest() throws Exception {
+        if (System.getProperty("apiKey") != null) {
+            apiKey = Integer.valueOf(System.getProperty("apiKey"));
+            apiSecret = System.getProperty("apiSecret");
+            apiUrl = API_Config.API_URL;
+        } else {
+            apiKey = TokenGenerationTest.API_KEY;
+            apiSecret = TokenGenerationTest.API_SECRET;
+            apiUrl = standIn().getUrl();
+        }
+		sdk = new OpenTokSDK(apiKey, apiSecret, apiUrl);
+    }
 
-    public UnitTest() {
-        apiKey = Integer.valueOf(System.getProperty("apiKey"));
-        apiSecret = System.getProperty("apiSecret");
-		sdk = new OpenTokSDK(apiKey, apiSecret);
+    private static synchronized StandInServer standIn() throws Exception {
+        if (standIn == null) {
+            standIn = new StandInServer(TokenGenerationTest.API_KEY, TokenGenerationTest.API_SECRET).start();
+        }
+        return standIn;
     }
 
     private TokBoxXML get_session_info(String session_id) throws OpenTokException {
@@ -38,7 +57,7 @@ public class UnitTest {
 		Map<String, String> headers = new HashMap<String, String>();
 		headers.put("X-TB-TOKEN-AUTH", token );
 		TokBoxXML xml;
-        xml = new TokBoxXML(request(API_Config.API_URL + "/session/" + session_id + "?extended=true", new HashMap<String, String>(), headers));
+        xml = new TokBoxXML(request(apiUrl + "/session/" + session_id + "?extended=true", new HashMap<String, String>(), headers));
 	    return xml;
     }
 
@@ -46,7 +65,7 @@ public class UnitTest {
 		Map<String, String> headers = new HashMap<String, String>();
 		headers.put("X-TB-TOKEN-AUTH",token);
 		TokBoxXML xml;
-	    xml = new TokBoxXML(request(API_Config.API_URL + "/token/validate", new HashMap<String, String>(), headers));
+	    xml = new TokBoxXML(request(apiUrl + "/token/validate", new HashMap<String, String>(), headers));
 	    return xml;
     }
     